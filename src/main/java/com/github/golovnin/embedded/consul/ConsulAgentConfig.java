@@ -34,6 +34,13 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -43,7 +50,6 @@ import de.flapdoodle.embed.process.builder.TypedProperty;
 import de.flapdoodle.embed.process.config.IExecutableProcessConfig;
 import de.flapdoodle.embed.process.config.ISupportConfig;
 import de.flapdoodle.embed.process.distribution.IVersion;
-import de.flapdoodle.embed.process.runtime.Network;
 
 import static java.util.Objects.requireNonNull;
 
@@ -69,30 +75,152 @@ public final class ConsulAgentConfig implements IExecutableProcessConfig {
     private final String nodeID;
     private final Consumer<String> outConsumer;
     private final Consumer<String> errConsumer;
+    private final ConsulReadinessProbe readiness;
+    private final boolean dev;
+    private final boolean server;
+    private final int bootstrapExpect;
+    private final List<String> retryJoin;
+    private final String dataDir;
+    private final Map<String, String> environment;
+    private final int outputHistory;
+    private final int asyncOutputCapacity;
+    private final ConsulOverflowPolicy overflowPolicy;
+    private final Consumer<List<String>> outBatchConsumer;
+    private final Consumer<List<String>> errBatchConsumer;
+    private final ConsulLogListener logListener;
+    private final ConsulLogLevel logEventLevel;
+    private final List<String> logEventModules;
+    private final int raftMultiplier;
+    private final String statsdAddress;
+    private final long prometheusRetentionTime;
+    private final double rpcRate;
+    private final int rpcMaxBurst;
+    private final String aclMasterToken;
+    private final String aclDefaultPolicy;
+    private final List<ConsulService> services;
+    private final List<ConsulCheck> checks;
+    private final boolean fastTestProfile;
+    private final ConsulStopSignal stopSignal;
+    private final long stopTimeout;
+    private final String reservedPortsAddress;
+    private final int reservedPorts;
+    private final AtomicBoolean reservationClaimed;
+    private final ConsulSeed seed;
+
+    // The content of the configuration file, created lazily by toJson().
+    // A racy initialization is harmless, because the content is always
+    // the same.
+    private volatile String json;
+
+    @SuppressWarnings("unchecked")
+    private ConsulAgentConfig(Builder builder) {
+        this.version = builder.value(Builder.VERSION);
+        this.startupTimeout = builder.value(Builder.STARTUP_TIMEOUT);
+        this.advertise = builder.value(Builder.ADVERTISE);
+        this.bind = builder.value(Builder.BIND);
+        this.client = builder.value(Builder.CLIENT);
+        this.configDir = builder.value(Builder.CONFIG_DIR);
+        this.datacenter = builder.value(Builder.DATACENTER);
+        this.dnsPort = builder.value(Builder.DNS_PORT);
+        this.httpPort = builder.value(Builder.HTTP_PORT);
+        this.serfLANPort = builder.value(Builder.SERF_LAN_PORT);
+        this.serfWANPort = builder.value(Builder.SERF_WAN_PORT);
+        this.serverPort = builder.value(Builder.SERVER_PORT);
+        this.logLevel = builder.value(Builder.LOG_LEVEL);
+        this.node = builder.value(Builder.NODE);
+        this.nodeID = builder.value(Builder.NODE_ID);
+        this.outConsumer = (Consumer<String>) builder.value(Builder.OUT_CONSUMER);
+        this.errConsumer = (Consumer<String>) builder.value(Builder.ERR_CONSUMER);
+        this.readiness = builder.value(Builder.READINESS);
+        this.dev = builder.value(Builder.DEV);
+        this.server = builder.value(Builder.SERVER);
+        this.bootstrapExpect = builder.value(Builder.BOOTSTRAP_EXPECT);
+        this.retryJoin = (List<String>) builder.value(Builder.RETRY_JOIN);
+        this.dataDir = builder.value(Builder.DATA_DIR);
+        this.environment = (Map<String, String>) builder.value(Builder.ENVIRONMENT);
+        this.outputHistory = builder.value(Builder.OUTPUT_HISTORY);
+        this.asyncOutputCapacity = builder.value(Builder.ASYNC_OUTPUT_CAPACITY);
+        this.overflowPolicy = builder.value(Builder.OVERFLOW_POLICY);
+        this.outBatchConsumer = (Consumer<List<String>>) builder.value(Builder.OUT_BATCH_CONSUMER);
+        this.errBatchConsumer = (Consumer<List<String>>) builder.value(Builder.ERR_BATCH_CONSUMER);
+        this.logListener = builder.value(Builder.LOG_LISTENER);
+        this.logEventLevel = builder.value(Builder.LOG_EVENT_LEVEL);
+        this.logEventModules = (List<String>) builder.value(Builder.LOG_EVENT_MODULES);
+        this.raftMultiplier = builder.value(Builder.RAFT_MULTIPLIER);
+        this.statsdAddress = builder.value(Builder.STATSD_ADDRESS);
+        this.prometheusRetentionTime = builder.value(Builder.PROMETHEUS_RETENTION_TIME);
+        this.rpcRate = builder.value(Builder.RPC_RATE);
+        this.rpcMaxBurst = builder.value(Builder.RPC_MAX_BURST);
+        this.aclMasterToken = builder.value(Builder.ACL_MASTER_TOKEN);
+        this.aclDefaultPolicy = builder.value(Builder.ACL_DEFAULT_POLICY);
+        this.services = (List<ConsulService>) builder.value(Builder.SERVICES);
+        this.checks = (List<ConsulCheck>) builder.value(Builder.CHECKS);
+        this.fastTestProfile = builder.value(Builder.FAST_TEST_PROFILE);
+        this.stopSignal = builder.value(Builder.STOP_SIGNAL);
+        this.stopTimeout = builder.value(Builder.STOP_TIMEOUT);
+        this.reservedPortsAddress = builder.value(Builder.RESERVED_PORTS);
+        this.reservedPorts = 0;
+        this.reservationClaimed = new AtomicBoolean(true);
+        this.seed = builder.value(Builder.SEED);
+    }
 
-    ConsulAgentConfig(IVersion version, long startupTimeout,
-        String advertise, String bind, String client, String configDir,
-        String datacenter, int dnsPort, int httpPort, int serfLANPort,
-        int serfWANPort, int serverPort, ConsulLogLevel logLevel, String node,
-        String nodeID, Consumer<String> outConsumer, Consumer<String> errConsumer
-    ) {
-        this.version = version;
-        this.startupTimeout = startupTimeout;
-        this.advertise = advertise;
-        this.bind = bind;
-        this.client = client;
-        this.configDir = configDir;
-        this.datacenter = datacenter;
-        this.dnsPort = dnsPort;
-        this.httpPort = httpPort;
-        this.serfLANPort = serfLANPort;
-        this.serfWANPort = serfWANPort;
-        this.serverPort = serverPort;
-        this.logLevel = logLevel;
-        this.node = node;
-        this.nodeID = nodeID;
-        this.outConsumer = outConsumer;
-        this.errConsumer = errConsumer;
+    /**
+     * Creates a copy of the given configuration using the given block of
+     * ports for all ports which have not been set explicitly. The block
+     * is taken over by the first start of the agent unless it has been
+     * {@code claimed} already.
+     */
+    private ConsulAgentConfig(ConsulAgentConfig config, int[] ports,
+        boolean claimed)
+    {
+        this.version = config.version;
+        this.startupTimeout = config.startupTimeout;
+        this.advertise = config.advertise;
+        this.bind = config.bind;
+        this.client = config.client;
+        this.configDir = config.configDir;
+        this.datacenter = config.datacenter;
+        this.dnsPort = config.blockPort(config.dnsPort, 1, ports);
+        this.httpPort = config.blockPort(config.httpPort, 0, ports);
+        this.serfLANPort = config.blockPort(config.serfLANPort, 2, ports);
+        this.serfWANPort = config.blockPort(config.serfWANPort, 3, ports);
+        this.serverPort = config.blockPort(config.serverPort, 4, ports);
+        this.logLevel = config.logLevel;
+        this.node = config.node;
+        this.nodeID = config.nodeID;
+        this.outConsumer = config.outConsumer;
+        this.errConsumer = config.errConsumer;
+        this.readiness = config.readiness;
+        this.dev = config.dev;
+        this.server = config.server;
+        this.bootstrapExpect = config.bootstrapExpect;
+        this.retryJoin = config.retryJoin;
+        this.dataDir = config.dataDir;
+        this.environment = config.environment;
+        this.outputHistory = config.outputHistory;
+        this.asyncOutputCapacity = config.asyncOutputCapacity;
+        this.overflowPolicy = config.overflowPolicy;
+        this.outBatchConsumer = config.outBatchConsumer;
+        this.errBatchConsumer = config.errBatchConsumer;
+        this.logListener = config.logListener;
+        this.logEventLevel = config.logEventLevel;
+        this.logEventModules = config.logEventModules;
+        this.raftMultiplier = config.raftMultiplier;
+        this.statsdAddress = config.statsdAddress;
+        this.prometheusRetentionTime = config.prometheusRetentionTime;
+        this.rpcRate = config.rpcRate;
+        this.rpcMaxBurst = config.rpcMaxBurst;
+        this.aclMasterToken = config.aclMasterToken;
+        this.aclDefaultPolicy = config.aclDefaultPolicy;
+        this.services = config.services;
+        this.checks = config.checks;
+        this.fastTestProfile = config.fastTestProfile;
+        this.stopSignal = config.stopSignal;
+        this.stopTimeout = config.stopTimeout;
+        this.reservedPortsAddress = config.reservedPortsAddress;
+        this.reservedPorts = ports[0];
+        this.reservationClaimed = new AtomicBoolean(claimed);
+        this.seed = config.seed;
     }
 
     public static final class Builder extends AbstractBuilder<ConsulAgentConfig> {
@@ -152,6 +280,93 @@ public final class ConsulAgentConfig implements IExecutableProcessConfig {
         private static final TypedProperty<Consumer> ERR_CONSUMER =
             TypedProperty.with("err-consumer", Consumer.class);
 
+        private static final TypedProperty<ConsulReadinessProbe> READINESS =
+            TypedProperty.with("readiness", ConsulReadinessProbe.class);
+
+        private static final TypedProperty<Boolean> DEV =
+            TypedProperty.with("dev", Boolean.class);
+
+        private static final TypedProperty<Boolean> SERVER =
+            TypedProperty.with("server", Boolean.class);
+
+        private static final TypedProperty<Integer> BOOTSTRAP_EXPECT =
+            TypedProperty.with("bootstrap-expect", Integer.class);
+
+        private static final TypedProperty<List> RETRY_JOIN =
+            TypedProperty.with("retry-join", List.class);
+
+        private static final TypedProperty<String> DATA_DIR =
+            TypedProperty.with("data-dir", String.class);
+
+        private static final TypedProperty<Map> ENVIRONMENT =
+            TypedProperty.with("environment", Map.class);
+
+        private static final TypedProperty<Integer> OUTPUT_HISTORY =
+            TypedProperty.with("output-history", Integer.class);
+
+        private static final TypedProperty<Integer> ASYNC_OUTPUT_CAPACITY =
+            TypedProperty.with("async-output-capacity", Integer.class);
+
+        private static final TypedProperty<ConsulOverflowPolicy> OVERFLOW_POLICY =
+            TypedProperty.with("overflow-policy", ConsulOverflowPolicy.class);
+
+        private static final TypedProperty<Consumer> OUT_BATCH_CONSUMER =
+            TypedProperty.with("out-batch-consumer", Consumer.class);
+
+        private static final TypedProperty<Consumer> ERR_BATCH_CONSUMER =
+            TypedProperty.with("err-batch-consumer", Consumer.class);
+
+        private static final TypedProperty<ConsulLogListener> LOG_LISTENER =
+            TypedProperty.with("log-listener", ConsulLogListener.class);
+
+        private static final TypedProperty<ConsulLogLevel> LOG_EVENT_LEVEL =
+            TypedProperty.with("log-event-level", ConsulLogLevel.class);
+
+        private static final TypedProperty<List> LOG_EVENT_MODULES =
+            TypedProperty.with("log-event-modules", List.class);
+
+        private static final TypedProperty<Integer> RAFT_MULTIPLIER =
+            TypedProperty.with("raft-multiplier", Integer.class);
+
+        private static final TypedProperty<String> STATSD_ADDRESS =
+            TypedProperty.with("statsd-address", String.class);
+
+        private static final TypedProperty<Long> PROMETHEUS_RETENTION_TIME =
+            TypedProperty.with("prometheus-retention-time", Long.class);
+
+        private static final TypedProperty<Double> RPC_RATE =
+            TypedProperty.with("rpc-rate", Double.class);
+
+        private static final TypedProperty<Integer> RPC_MAX_BURST =
+            TypedProperty.with("rpc-max-burst", Integer.class);
+
+        private static final TypedProperty<String> ACL_MASTER_TOKEN =
+            TypedProperty.with("acl-master-token", String.class);
+
+        private static final TypedProperty<String> ACL_DEFAULT_POLICY =
+            TypedProperty.with("acl-default-policy", String.class);
+
+        private static final TypedProperty<List> SERVICES =
+            TypedProperty.with("services", List.class);
+
+        private static final TypedProperty<List> CHECKS =
+            TypedProperty.with("checks", List.class);
+
+        private static final TypedProperty<Boolean> FAST_TEST_PROFILE =
+            TypedProperty.with("fast-test-profile", Boolean.class);
+
+        private static final TypedProperty<ConsulStopSignal> STOP_SIGNAL =
+            TypedProperty.with("stop-signal", ConsulStopSignal.class);
+
+        private static final TypedProperty<Long> STOP_TIMEOUT =
+            TypedProperty.with("stop-timeout", Long.class);
+
+        private static final TypedProperty<String> RESERVED_PORTS =
+            TypedProperty.with("reserved-ports", String.class);
+
+        private static final TypedProperty<ConsulSeed> SEED =
+            TypedProperty.with("seed", ConsulSeed.class);
+
         public Builder() {
             property(VERSION).setDefault(ConsulVersion.V1_2_3);
             property(STARTUP_TIMEOUT).setDefault(60000L);
@@ -176,6 +391,35 @@ public final class ConsulAgentConfig implements IExecutableProcessConfig {
             property(NODE_ID).setDefault(UUID.randomUUID().toString());
             property(OUT_CONSUMER).setDefault(NOP_CONSUMER);
             property(ERR_CONSUMER).setDefault(NOP_CONSUMER);
+            property(READINESS).setDefault(ConsulReadiness.LOG_LINE);
+            property(DEV).setDefault(true);
+            property(SERVER).setDefault(true);
+            property(BOOTSTRAP_EXPECT).setDefault(0);
+            property(RETRY_JOIN).setDefault(Collections.emptyList());
+            property(DATA_DIR).setDefault("");
+            property(ENVIRONMENT).setDefault(Collections.emptyMap());
+            property(OUTPUT_HISTORY).setDefault(100);
+            property(ASYNC_OUTPUT_CAPACITY).setDefault(0);
+            property(OVERFLOW_POLICY).setDefault(ConsulOverflowPolicy.BLOCK);
+            property(OUT_BATCH_CONSUMER).setDefault(NOP_CONSUMER);
+            property(ERR_BATCH_CONSUMER).setDefault(NOP_CONSUMER);
+            property(LOG_LISTENER).setDefault(ConsulLogListener.NOP);
+            property(LOG_EVENT_LEVEL).setDefault(ConsulLogLevel.TRACE);
+            property(LOG_EVENT_MODULES).setDefault(Collections.emptyList());
+            property(RAFT_MULTIPLIER).setDefault(0);
+            property(STATSD_ADDRESS).setDefault("");
+            property(PROMETHEUS_RETENTION_TIME).setDefault(0L);
+            property(RPC_RATE).setDefault(0.0);
+            property(RPC_MAX_BURST).setDefault(0);
+            property(ACL_MASTER_TOKEN).setDefault("");
+            property(ACL_DEFAULT_POLICY).setDefault("allow");
+            property(SERVICES).setDefault(Collections.emptyList());
+            property(CHECKS).setDefault(Collections.emptyList());
+            property(FAST_TEST_PROFILE).setDefault(false);
+            property(STOP_SIGNAL).setDefault(ConsulStopSignal.INTERRUPT);
+            property(STOP_TIMEOUT).setDefault(5000L);
+            property(RESERVED_PORTS).setDefault("");
+            property(SEED).setDefault(ConsulSeed.NONE);
         }
 
         public Builder version(IVersion version) {
@@ -246,21 +490,17 @@ public final class ConsulAgentConfig implements IExecutableProcessConfig {
             return randomPorts(DEFAULT_ADDRESS);
         }
 
+        /**
+         * Uses a block of free ports on the given address. The block is
+         * reserved across JVMs by {@link ConsulPortAllocator} when the
+         * configuration is built and released when the agent started with
+         * it is stopped. A restarted agent reserves the same block again.
+         * If the agent nevertheless fails to bind one of the ports, it is
+         * started again with a fresh block, see
+         * {@link ConsulAgentProcess#getStartAttempts()}.
+         */
         public Builder randomPorts(String address) {
-            try {
-                int[] ports = Network.getFreeServerPorts(
-                    InetAddress.getByName(address), 5);
-                advertise(address);
-                bind(address);
-                httpPort(ports[0]);
-                dnsPort(ports[1]);
-                serfLANPort(ports[2]);
-                serfWANPort(ports[3]);
-                serverPort(ports[4]);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
-            return this;
+            return reservePorts(address, true);
         }
 
         public Builder logLevel(ConsulLogLevel level) {
@@ -288,27 +528,305 @@ public final class ConsulAgentConfig implements IExecutableProcessConfig {
             return this;
         }
 
-        @SuppressWarnings("unchecked")
+        /**
+         * Sets the probe which decides when a started agent is ready.
+         * The default is {@link ConsulReadiness#LOG_LINE}.
+         */
+        public Builder readiness(ConsulReadinessProbe probe) {
+            property(READINESS).set(requireNonNull(probe));
+            return this;
+        }
+
+        /**
+         * Runs the agent in the development mode ({@code -dev}). This is
+         * the default. If the development mode is disabled, the agent uses
+         * the settings for {@link #server(boolean)},
+         * {@link #bootstrapExpect(int)} and {@link #dataDir(String)}.
+         */
+        public Builder dev(boolean dev) {
+            property(DEV).set(dev);
+            return this;
+        }
+
+        public Builder server(boolean server) {
+            property(SERVER).set(server);
+            return this;
+        }
+
+        public Builder bootstrapExpect(int servers) {
+            property(BOOTSTRAP_EXPECT).set(servers);
+            return this;
+        }
+
+        /**
+         * Sets the addresses ({@code host:serf-lan-port}) of the agents
+         * to join on startup.
+         */
+        public Builder retryJoin(List<String> addresses) {
+            property(RETRY_JOIN).set(
+                Collections.unmodifiableList(new ArrayList<>(addresses)));
+            return this;
+        }
+
+        /**
+         * Sets the data directory used outside of the development mode.
+         * If not set, a temporary directory is created on start and
+         * deleted when the agent is stopped.
+         */
+        public Builder dataDir(String dataDir) {
+            property(DATA_DIR).set(dataDir);
+            return this;
+        }
+
+        /**
+         * Sets additional environment variables for the agent process,
+         * e.g. {@code GOMAXPROCS} to limit the number of used CPU cores.
+         */
+        public Builder environment(Map<String, String> environment) {
+            property(ENVIRONMENT).set(
+                Collections.unmodifiableMap(new HashMap<>(environment)));
+            return this;
+        }
+
+        /**
+         * Sets the number of the last output lines of a running agent,
+         * which are retained for diagnostics. The default is 100.
+         */
+        public Builder outputHistory(int lines) {
+            if (lines < 0) {
+                throw new IllegalArgumentException(
+                    "lines must not be negative: " + lines);
+            }
+            property(OUTPUT_HISTORY).set(lines);
+            return this;
+        }
+
+        /**
+         * Delivers the output of the agent to the consumers in batches on
+         * a small thread pool shared by all agents (at most four threads),
+         * so that a slow consumer does not block the agent. Up to
+         * {@code capacity} lines per stream are queued; the policy decides
+         * what happens when the queue is full.
+         */
+        public Builder asyncOutput(int capacity, ConsulOverflowPolicy policy) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException(
+                    "capacity must be greater than zero: " + capacity);
+            }
+            property(ASYNC_OUTPUT_CAPACITY).set(capacity);
+            property(OVERFLOW_POLICY).set(requireNonNull(policy));
+            return this;
+        }
+
+        /**
+         * Sets the consumer for batches of lines of the standard output.
+         * Without {@link #asyncOutput(int, ConsulOverflowPolicy)} every
+         * batch consists of a single line.
+         */
+        public Builder outBatchConsumer(Consumer<List<String>> consumer) {
+            property(OUT_BATCH_CONSUMER).set(requireNonNull(consumer));
+            return this;
+        }
+
+        /**
+         * Sets the consumer for batches of lines of the standard error.
+         * Without {@link #asyncOutput(int, ConsulOverflowPolicy)} every
+         * batch consists of a single line.
+         */
+        public Builder errBatchConsumer(Consumer<List<String>> consumer) {
+            property(ERR_BATCH_CONSUMER).set(requireNonNull(consumer));
+            return this;
+        }
+
+        /**
+         * Sets the listener for all log messages of the agent.
+         */
+        public Builder logListener(ConsulLogListener listener) {
+            return logListener(listener, ConsulLogLevel.TRACE);
+        }
+
+        /**
+         * Sets the listener for the log messages of the agent with at least
+         * the given level and of the given modules, e.g. {@code agent} or
+         * {@code raft}. A module also matches its submodules. Without
+         * modules the messages of all modules are reported. Messages which
+         * do not pass the filter are discarded without being parsed.
+         */
+        public Builder logListener(ConsulLogListener listener,
+            ConsulLogLevel minLevel, String... modules)
+        {
+            property(LOG_LISTENER).set(requireNonNull(listener));
+            property(LOG_EVENT_LEVEL).set(requireNonNull(minLevel));
+            property(LOG_EVENT_MODULES).set(
+                Collections.unmodifiableList(Arrays.asList(modules.clone())));
+            return this;
+        }
+
+        /**
+         * Sets the scaling factor for the Raft timing, from 1 (fastest) to
+         * 10. If not set, the default of the Consul version is used.
+         */
+        public Builder raftMultiplier(int multiplier) {
+            if (multiplier < 1 || multiplier > 10) {
+                throw new IllegalArgumentException(
+                    "multiplier must be between 1 and 10: " + multiplier);
+            }
+            property(RAFT_MULTIPLIER).set(multiplier);
+            return this;
+        }
+
+        /**
+         * Sends the metrics of the agent to the given statsd server.
+         */
+        public Builder statsdAddress(String address) {
+            property(STATSD_ADDRESS).set(requireNonNull(address));
+            return this;
+        }
+
+        /**
+         * Enables the Prometheus format of {@code /v1/agent/metrics} and
+         * retains the metrics for the given time.
+         */
+        public Builder prometheusRetentionTime(long time, TimeUnit unit) {
+            long millis = unit.toMillis(time);
+            if (millis < 1) {
+                throw new IllegalArgumentException(
+                    "time must be at least 1 ms: " + time + " " + unit);
+            }
+            property(PROMETHEUS_RETENTION_TIME).set(millis);
+            return this;
+        }
+
+        /**
+         * Limits the rate of RPC requests sent by a client agent to the
+         * servers.
+         */
+        public Builder rpcLimit(double rate, int maxBurst) {
+            if (rate <= 0 || maxBurst < 1) {
+                throw new IllegalArgumentException(
+                    "Invalid RPC limit: rate=" + rate + ", maxBurst=" + maxBurst);
+            }
+            property(RPC_RATE).set(rate);
+            property(RPC_MAX_BURST).set(maxBurst);
+            return this;
+        }
+
+        /**
+         * Enables ACLs with the given master token and default policy,
+         * {@code allow} or {@code deny}.
+         */
+        public Builder acl(String masterToken, String defaultPolicy) {
+            if (!"allow".equals(defaultPolicy) && !"deny".equals(defaultPolicy)) {
+                throw new IllegalArgumentException(
+                    "defaultPolicy must be allow or deny: " + defaultPolicy);
+            }
+            property(ACL_MASTER_TOKEN).set(requireNonNull(masterToken));
+            property(ACL_DEFAULT_POLICY).set(defaultPolicy);
+            return this;
+        }
+
+        /**
+         * Registers the services in the configuration file of the agent,
+         * so that no {@code configDir} is needed.
+         */
+        public Builder services(List<ConsulService> services) {
+            property(SERVICES).set(
+                Collections.unmodifiableList(new ArrayList<>(services)));
+            return this;
+        }
+
+        /**
+         * Registers the node level health checks in the configuration
+         * file of the agent.
+         */
+        public Builder checks(List<ConsulCheck> checks) {
+            property(CHECKS).set(
+                Collections.unmodifiableList(new ArrayList<>(checks)));
+            return this;
+        }
+
+        /**
+         * Tunes the agent for fast startup and shutdown in tests instead
+         * of production durability: the fastest Raft timing (unless
+         * {@link #raftMultiplier(int)} is set), no network coordinates, no
+         * remote exec, no graceful leave on stop and no throttling of
+         * check updates.
+         */
+        public Builder fastTestProfile() {
+            property(FAST_TEST_PROFILE).set(true);
+            return this;
+        }
+
+        /**
+         * Sets the signal sent to the agent to stop it. The default is
+         * {@link ConsulStopSignal#INTERRUPT}.
+         */
+        public Builder stopSignal(ConsulStopSignal signal) {
+            property(STOP_SIGNAL).set(requireNonNull(signal));
+            return this;
+        }
+
+        /**
+         * Sets the maximum time to wait for the agent to exit after it has
+         * been signalled, before it is destroyed. The default is 5 seconds.
+         */
+        public Builder stopTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException(
+                    "timeout may not be negative: " + timeout);
+            }
+            property(STOP_TIMEOUT).set(unit.toMillis(timeout));
+            return this;
+        }
+
+        /**
+         * Uses a block of ports on the given address, which is reserved
+         * with {@link ConsulPortAllocator} by {@link #build()}. Ports set
+         * explicitly are not taken from the block. The DNS interface is
+         * disabled if {@code dns} is {@code false}.
+         */
+        Builder reservePorts(String address, boolean dns) {
+            property(RESERVED_PORTS).overwriteDefault(address);
+            property(ADVERTISE).overwriteDefault(address);
+            property(BIND).overwriteDefault(address);
+            // Zero marks a port which is taken from the reserved block.
+            property(HTTP_PORT).overwriteDefault(0);
+            property(DNS_PORT).overwriteDefault(dns ? 0 : -1);
+            property(SERF_LAN_PORT).overwriteDefault(0);
+            property(SERF_WAN_PORT).overwriteDefault(0);
+            property(SERVER_PORT).overwriteDefault(0);
+            return this;
+        }
+
+        /**
+         * Sets the data loaded into the agent before its startup completes.
+         * The services of the seed are registered in the configuration
+         * file of the agent together with {@link #services(List)}.
+         */
+        public Builder seed(ConsulSeed seed) {
+            property(SEED).set(requireNonNull(seed));
+            return this;
+        }
+
         @Override
         public ConsulAgentConfig build() {
-            return new ConsulAgentConfig(
-                property(VERSION).get(),
-                property(STARTUP_TIMEOUT).get(),
-                property(ADVERTISE).get(),
-                property(BIND).get(),
-                property(CLIENT).get(),
-                property(CONFIG_DIR).get(),
-                property(DATACENTER).get(),
-                property(DNS_PORT).get(),
-                property(HTTP_PORT).get(),
-                property(SERF_LAN_PORT).get(),
-                property(SERF_WAN_PORT).get(),
-                property(SERVER_PORT).get(),
-                property(LOG_LEVEL).get(),
-                property(NODE).get(),
-                property(NODE_ID).get(),
-                (Consumer<String>) property(OUT_CONSUMER).get(),
-                (Consumer<String>) property(ERR_CONSUMER).get());
+            ConsulAgentConfig config = new ConsulAgentConfig(this);
+            String address = config.reservedPortsAddress;
+            if (address.isEmpty()) {
+                return config;
+            }
+            int[] ports;
+            try {
+                ports = ConsulPortAllocator.allocate(
+                    InetAddress.getByName(address));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new ConsulAgentConfig(config, ports, false);
+        }
+
+        private <T> T value(TypedProperty<T> property) {
+            return property(property).get();
         }
 
     }
@@ -377,6 +895,173 @@ public final class ConsulAgentConfig implements IExecutableProcessConfig {
         return errConsumer;
     }
 
+    public ConsulReadinessProbe getReadiness() {
+        return readiness;
+    }
+
+    public boolean isDev() {
+        return dev;
+    }
+
+    public boolean isServer() {
+        return server;
+    }
+
+    public int getBootstrapExpect() {
+        return bootstrapExpect;
+    }
+
+    public List<String> getRetryJoin() {
+        return retryJoin;
+    }
+
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    public Map<String, String> getEnvironment() {
+        return environment;
+    }
+
+    public int getOutputHistory() {
+        return outputHistory;
+    }
+
+    /**
+     * Returns the capacity of the output queues or {@code 0}, if the
+     * output is delivered synchronously.
+     */
+    public int getAsyncOutputCapacity() {
+        return asyncOutputCapacity;
+    }
+
+    public ConsulOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public Consumer<List<String>> getOutBatchConsumer() {
+        return outBatchConsumer;
+    }
+
+    public Consumer<List<String>> getErrBatchConsumer() {
+        return errBatchConsumer;
+    }
+
+    /**
+     * Returns {@code true} if the given consumer is the default consumer
+     * which discards its input.
+     */
+    static boolean isNop(Consumer<?> consumer) {
+        return consumer == Builder.NOP_CONSUMER;
+    }
+
+    public ConsulLogListener getLogListener() {
+        return logListener;
+    }
+
+    public ConsulLogLevel getLogEventLevel() {
+        return logEventLevel;
+    }
+
+    public List<String> getLogEventModules() {
+        return logEventModules;
+    }
+
+    public int getRaftMultiplier() {
+        return raftMultiplier;
+    }
+
+    public String getStatsdAddress() {
+        return statsdAddress;
+    }
+
+    public long getPrometheusRetentionTime(TimeUnit unit) {
+        return unit.convert(prometheusRetentionTime, TimeUnit.MILLISECONDS);
+    }
+
+    public double getRpcRate() {
+        return rpcRate;
+    }
+
+    public int getRpcMaxBurst() {
+        return rpcMaxBurst;
+    }
+
+    public String getAclMasterToken() {
+        return aclMasterToken;
+    }
+
+    public String getAclDefaultPolicy() {
+        return aclDefaultPolicy;
+    }
+
+    public List<ConsulService> getServices() {
+        return services;
+    }
+
+    public List<ConsulCheck> getChecks() {
+        return checks;
+    }
+
+    public boolean isFastTestProfile() {
+        return fastTestProfile;
+    }
+
+    public ConsulStopSignal getStopSignal() {
+        return stopSignal;
+    }
+
+    /**
+     * Returns the stop timeout in milliseconds.
+     */
+    public long getStopTimeout() {
+        return stopTimeout;
+    }
+
+    /**
+     * Returns the address on which the ports of the agent have been
+     * reserved by {@link ConsulPortAllocator}, or an empty string if the
+     * ports have been set explicitly.
+     */
+    String getReservedPortsAddress() {
+        return reservedPortsAddress;
+    }
+
+    /**
+     * Returns the first port of the block reserved for this configuration
+     * or {@code 0}, if the ports have been set explicitly.
+     */
+    int getReservedPorts() {
+        return reservedPorts;
+    }
+
+    /**
+     * Takes over the block of ports reserved when this configuration was
+     * built. If the block has been taken over before, e.g. by a previous
+     * start of the agent, it is reserved again.
+     *
+     * @return {@code false} if the block is in use.
+     */
+    boolean claimReservedPorts() throws IOException {
+        return reservationClaimed.compareAndSet(false, true)
+            || ConsulPortAllocator.reserve(
+                InetAddress.getByName(reservedPortsAddress), reservedPorts);
+    }
+
+    /**
+     * Releases the block of ports reserved when this configuration was
+     * built, unless it has been taken over by an agent.
+     */
+    void releaseUnclaimedPorts() {
+        if (reservationClaimed.compareAndSet(false, true)) {
+            ConsulPortAllocator.release(reservedPorts);
+        }
+    }
+
+    public ConsulSeed getSeed() {
+        return seed;
+    }
+
     @Override
     public IVersion version() {
         return version;
@@ -384,18 +1069,113 @@ public final class ConsulAgentConfig implements IExecutableProcessConfig {
 
     @Override
     public ISupportConfig supportConfig() {
-        return ConsulSupportConfig.INSTANCE;
+        return new ConsulSupportConfig(stopTimeout);
+    }
+
+    /**
+     * Returns a copy of this configuration using the given block of ports
+     * reserved by {@link ConsulPortAllocator} for all ports which have not
+     * been set explicitly. The caller owns the block.
+     */
+    ConsulAgentConfig withPorts(int[] ports) {
+        return new ConsulAgentConfig(this, ports, true);
+    }
+
+    private int blockPort(int port, int index, int[] ports) {
+        boolean reserved = port == 0
+            || reservedPorts != 0 && port == reservedPorts + index;
+        return reserved ? ports[index] : port;
+    }
+
+    /**
+     * Returns a key which is equal for configurations starting equivalent
+     * agents. The consumers, the listeners and the node ID are ignored, as
+     * are the ports reserved by {@link ConsulPortAllocator}. Agents with
+     * different instances of {@link ConsulSeed} are never equivalent.
+     */
+    String sharingKey() {
+        ConsulAgentConfig ports = reservedPorts != 0
+            ? withPorts(new int[ConsulPortAllocator.BLOCK_SIZE])
+            : this;
+        return version.asInDownloadPath()
+            + '|' + advertise + '|' + bind + '|' + client + '|' + configDir
+            + '|' + datacenter + '|' + ports.dnsPort + '|' + ports.httpPort
+            + '|' + logLevel + '|' + node + '|' + dev + '|' + server
+            + '|' + bootstrapExpect + '|' + retryJoin + '|' + dataDir
+            + '|' + environment + '|' + readiness + '|' + stopSignal
+            + '|' + seed.getSerial() + '|' + ports.toJson();
     }
 
+    /**
+     * Returns the content of the configuration file of the agent. The JSON
+     * document is created once and reused for every start.
+     */
     String toJson() {
-        return "{\n" +
-            "\t\"ports\": {\n" +
-            "\t\t\"serf_lan\": " + getSerfLANPort() + ",\n" +
-            "\t\t\"serf_wan\": " + getSerfWANPort() + ",\n" +
-            "\t\t\"server\": " + getServerPort() + "\n" +
-            "\t},\n" +
-            "\t\"disable_update_check\": true\n" +
-            "}\n";
+        String result = json;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder(256);
+            writeJson(new ConsulJsonWriter(sb));
+            result = sb.toString();
+            json = result;
+        }
+        return result;
+    }
+
+    private void writeJson(ConsulJsonWriter writer) {
+        writer.beginObject()
+            .name("ports").beginObject()
+                .name("serf_lan").value(getSerfLANPort())
+                .name("serf_wan").value(getSerfWANPort())
+                .name("server").value(getServerPort())
+            .endObject()
+            .name("disable_update_check").value(true);
+        if (raftMultiplier > 0 || fastTestProfile) {
+            writer.name("performance").beginObject()
+                .name("raft_multiplier").value(raftMultiplier > 0 ? raftMultiplier : 1)
+                .endObject();
+        }
+        if (fastTestProfile) {
+            writer.name("disable_coordinates").value(true)
+                .name("disable_remote_exec").value(true)
+                .name("leave_on_terminate").value(false)
+                .name("skip_leave_on_interrupt").value(true)
+                .name("check_update_interval").value("0s");
+        }
+        if (!statsdAddress.isEmpty() || prometheusRetentionTime > 0) {
+            writer.name("telemetry").beginObject()
+                .optional("statsd_address", statsdAddress)
+                .duration("prometheus_retention_time", prometheusRetentionTime)
+                .endObject();
+        }
+        if (rpcRate > 0) {
+            writer.name("limits").beginObject()
+                .name("rpc_rate").value(rpcRate)
+                .name("rpc_max_burst").value(rpcMaxBurst)
+                .endObject();
+        }
+        if (!aclMasterToken.isEmpty()) {
+            writer.name("acl_datacenter").value(getDatacenter())
+                .name("acl_master_token").value(aclMasterToken)
+                .name("acl_default_policy").value(aclDefaultPolicy);
+        }
+        if (!services.isEmpty() || !seed.getServices().isEmpty()) {
+            writer.name("services").beginArray();
+            for (ConsulService service : services) {
+                service.writeTo(writer);
+            }
+            for (ConsulService service : seed.getServices()) {
+                service.writeTo(writer);
+            }
+            writer.endArray();
+        }
+        if (!checks.isEmpty()) {
+            writer.name("checks").beginArray();
+            for (ConsulCheck check : checks) {
+                check.writeTo(writer);
+            }
+            writer.endArray();
+        }
+        writer.endObject();
     }
 
 }
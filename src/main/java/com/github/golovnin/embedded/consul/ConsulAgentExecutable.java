@@ -31,6 +31,11 @@
 package com.github.golovnin.embedded.consul;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import de.flapdoodle.embed.process.config.IRuntimeConfig;
 import de.flapdoodle.embed.process.distribution.Distribution;
@@ -44,18 +49,109 @@ public final class ConsulAgentExecutable
     extends Executable<ConsulAgentConfig, ConsulAgentProcess>
 {
 
+    /**
+     * Used for asynchronous operations if no executor is given.
+     */
+    static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(
+        new ConsulThreadFactory("embedded-consul-async"));
+
+    /**
+     * The maximum number of attempts to start an agent with reserved ports.
+     */
+    static final int MAX_START_ATTEMPTS = 5;
+
+    private final Distribution distribution;
+    private final IRuntimeConfig runtimeConfig;
+
     ConsulAgentExecutable(Distribution distribution,
         ConsulAgentConfig config, IRuntimeConfig runtimeConfig,
         IExtractedFileSet files)
     {
         super(distribution, config, runtimeConfig, files);
+        this.distribution = distribution;
+        this.runtimeConfig = runtimeConfig;
+    }
+
+    /**
+     * Starts the agent asynchronously on a daemon thread.
+     *
+     * @see #startAsync(Executor)
+     */
+    public CompletableFuture<ConsulAgentProcess> startAsync() {
+        return startAsync(ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Starts the agent asynchronously using the given executor.
+     * Cancelling the returned future aborts the startup and kills the
+     * agent process.
+     */
+    public CompletableFuture<ConsulAgentProcess> startAsync(Executor executor) {
+        ConsulStartFuture future = new ConsulStartFuture();
+        executor.execute(() -> future.run(this::start));
+        return future;
+    }
+
+    /**
+     * Stops all agents started by this executable asynchronously.
+     */
+    public CompletableFuture<Void> stopAsync() {
+        return CompletableFuture.runAsync(this::stop, ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Starts an additional agent using the files extracted for this
+     * executable. The returned process must be stopped before this
+     * executable is stopped, because depending on the artifact store
+     * stopping the executable may remove the extracted files.
+     */
+    ConsulAgentProcess startShared(ConsulAgentConfig config)
+        throws IOException
+    {
+        return start(distribution, config, runtimeConfig);
     }
 
     @Override
     protected ConsulAgentProcess start(Distribution distribution,
         ConsulAgentConfig config, IRuntimeConfig runtime) throws IOException
     {
-        return new ConsulAgentProcess(distribution, config, runtime, this);
+        String address = config.getReservedPortsAddress();
+        for (int attempt = 1; ; attempt++) {
+            int reserved = 0;
+            ConsulAgentConfig actual = config;
+            if (!address.isEmpty()) {
+                if (attempt == 1 && config.claimReservedPorts()) {
+                    reserved = config.getReservedPorts();
+                } else {
+                    int[] ports = ConsulPortAllocator.allocate(
+                        InetAddress.getByName(address));
+                    reserved = ports[0];
+                    actual = config.withPorts(ports);
+                }
+            }
+            try {
+                ConsulAgentProcess process =
+                    new ConsulAgentProcess(distribution, actual, runtime, this);
+                process.setStartAttempts(attempt);
+                process.setReservedPorts(reserved);
+                return process;
+            } catch (ConsulPortConflictException e) {
+                release(reserved);
+                if (reserved == 0 || attempt == MAX_START_ATTEMPTS) {
+                    throw e;
+                }
+                ConsulPortAllocator.recordRetry();
+            } catch (IOException | RuntimeException e) {
+                release(reserved);
+                throw e;
+            }
+        }
+    }
+
+    private static void release(int base) {
+        if (base != 0) {
+            ConsulPortAllocator.release(base);
+        }
     }
 
 }
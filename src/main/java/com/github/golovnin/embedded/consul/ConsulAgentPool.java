@@ -0,0 +1,531 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import de.flapdoodle.embed.process.builder.AbstractBuilder;
+import de.flapdoodle.embed.process.builder.TypedProperty;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A pool of Consul agents which are started in the background, so that
+ * a test can lease a running agent without paying the startup costs.
+ *
+ * <p>The pool keeps up to {@code size} idle agents. Leased agents are
+ * handed back by calling {@link #release(ConsulAgentProcess)}. The state of
+ * a released agent is wiped asynchronously using
+ * {@link ConsulAgentProcess#reset()} and the agent is put back into the
+ * pool. If the agent cannot be reset, it is stopped and the pool is
+ * refilled with a freshly started agent.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulAgentPool implements AutoCloseable {
+
+    private static final long FAILURE_CHECK_INTERVAL =
+        TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ConsulAgentStarter starter;
+    private final Supplier<ConsulAgentConfig> configFactory;
+    private final int size;
+    private final long maxIdleTime;
+    private final long leaseTimeout;
+    private final ScheduledExecutorService executor;
+    private final BlockingDeque<PooledAgent> idle;
+    private final Map<ConsulAgentProcess, PooledAgent> leased;
+    private final Set<PooledAgent> recycling;
+    private final AtomicInteger pending;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong failures;
+    private final AtomicLong totalWaitTime;
+    private final AtomicLong maxWaitTime;
+    private volatile Exception lastFailure;
+    private volatile boolean closed;
+
+    ConsulAgentPool(ConsulAgentStarter starter,
+        Supplier<ConsulAgentConfig> configFactory, int size, long maxIdleTime,
+        long leaseTimeout, int refillParallelism)
+    {
+        this.starter = starter;
+        this.configFactory = configFactory;
+        this.size = size;
+        this.maxIdleTime = maxIdleTime;
+        this.leaseTimeout = leaseTimeout;
+        this.executor = Executors.newScheduledThreadPool(refillParallelism,
+            new ConsulThreadFactory("embedded-consul-pool"));
+        this.idle = new LinkedBlockingDeque<>();
+        this.leased = new ConcurrentHashMap<>();
+        this.recycling = ConcurrentHashMap.newKeySet();
+        this.pending = new AtomicInteger();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.totalWaitTime = new AtomicLong();
+        this.maxWaitTime = new AtomicLong();
+        if (maxIdleTime > 0) {
+            long period = Math.max(maxIdleTime / 2, 1L);
+            executor.scheduleWithFixedDelay(this::evictIdleAgents,
+                period, period, TimeUnit.MILLISECONDS);
+        }
+        refill();
+    }
+
+    public static final class Builder extends AbstractBuilder<ConsulAgentPool> {
+
+        private static final TypedProperty<ConsulAgentStarter> STARTER =
+            TypedProperty.with("starter", ConsulAgentStarter.class);
+
+        private static final TypedProperty<Supplier> CONFIG_FACTORY =
+            TypedProperty.with("config-factory", Supplier.class);
+
+        private static final TypedProperty<Integer> SIZE =
+            TypedProperty.with("size", Integer.class);
+
+        private static final TypedProperty<Long> MAX_IDLE_TIME =
+            TypedProperty.with("max-idle-time", Long.class);
+
+        private static final TypedProperty<Long> LEASE_TIMEOUT =
+            TypedProperty.with("lease-timeout", Long.class);
+
+        private static final TypedProperty<Integer> REFILL_PARALLELISM =
+            TypedProperty.with("refill-parallelism", Integer.class);
+
+        public Builder() {
+            property(SIZE).setDefault(2);
+            property(MAX_IDLE_TIME).setDefault(TimeUnit.MINUTES.toMillis(10));
+            property(LEASE_TIMEOUT).setDefault(60000L);
+            property(REFILL_PARALLELISM).setDefault(2);
+        }
+
+        public Builder starter(ConsulAgentStarter starter) {
+            property(STARTER).set(requireNonNull(starter));
+            return this;
+        }
+
+        /**
+         * Sets the factory used to create the configuration of every
+         * pooled agent. The factory is called once per agent, so it must
+         * return a configuration with unique ports, e.g.:
+         * <pre>
+         * () -&gt; new ConsulAgentConfig.Builder().randomPorts().build()
+         * </pre>
+         */
+        public Builder configFactory(Supplier<ConsulAgentConfig> factory) {
+            property(CONFIG_FACTORY).set(requireNonNull(factory));
+            return this;
+        }
+
+        public Builder size(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException(
+                    "size must be greater than zero: " + size);
+            }
+            property(SIZE).set(size);
+            return this;
+        }
+
+        /**
+         * Idle agents are stopped after the given time and replaced by
+         * freshly started agents. A non-positive value disables the
+         * eviction of idle agents.
+         */
+        public Builder maxIdleTime(long maxIdleTime, TimeUnit unit) {
+            property(MAX_IDLE_TIME).set(unit.toMillis(maxIdleTime));
+            return this;
+        }
+
+        public Builder leaseTimeout(long leaseTimeout, TimeUnit unit) {
+            property(LEASE_TIMEOUT).set(unit.toMillis(leaseTimeout));
+            return this;
+        }
+
+        public Builder refillParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException(
+                    "parallelism must be greater than zero: " + parallelism);
+            }
+            property(REFILL_PARALLELISM).set(parallelism);
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public ConsulAgentPool build() {
+            ConsulAgentStarter starter = get(STARTER, null);
+            if (starter == null) {
+                starter = ConsulAgentStarter.getDefaultInstance();
+            }
+            Supplier<ConsulAgentConfig> configFactory =
+                (Supplier<ConsulAgentConfig>) get(CONFIG_FACTORY, null);
+            if (configFactory == null) {
+                configFactory = () -> new ConsulAgentConfig.Builder()
+                    .randomPorts()
+                    .readiness(ConsulReadiness.LEADER_ELECTED)
+                    .build();
+            }
+            return new ConsulAgentPool(
+                starter,
+                configFactory,
+                property(SIZE).get(),
+                property(MAX_IDLE_TIME).get(),
+                property(LEASE_TIMEOUT).get(),
+                property(REFILL_PARALLELISM).get());
+        }
+
+    }
+
+    /**
+     * Returns a running agent. If the pool has an idle agent, it is
+     * returned immediately. Otherwise the calling thread waits until
+     * the pool has started a new agent or the lease timeout elapses. Idle
+     * agents which have died in the meantime are discarded and replaced by
+     * freshly started agents.
+     */
+    public ConsulAgentProcess lease() throws IOException {
+        ensureOpen();
+        long start = System.nanoTime();
+        PooledAgent agent = pollRunning();
+        if (agent != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        long failed = failures.get();
+        refill();
+        if (agent == null) {
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(leaseTimeout);
+            try {
+                while (agent == null) {
+                    ensureOpen();
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new IOException(
+                            "No Consul agent became available within "
+                            + leaseTimeout + " ms", lastFailure);
+                    }
+                    agent = idle.pollLast(
+                        Math.min(remaining, FAILURE_CHECK_INTERVAL),
+                        TimeUnit.NANOSECONDS);
+                    if (agent != null && !agent.process.isProcessRunning()) {
+                        agent.stop();
+                        agent = null;
+                        refill();
+                    } else if (agent == null && pending.get() == 0
+                        && idle.isEmpty())
+                    {
+                        // Nothing is in flight. Fail fast if the start
+                        // triggered by this lease failed, otherwise start
+                        // a replacement for an agent taken by someone else.
+                        if (failures.get() != failed) {
+                            throw new IOException(
+                                "Could not start a Consul agent", lastFailure);
+                        }
+                        refill();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                    "Interrupted while waiting for a Consul agent");
+            }
+        }
+        leased.put(agent.process, agent);
+        recordWaitTime(System.nanoTime() - start);
+        return agent.process;
+    }
+
+    /**
+     * Hands the given agent back to the pool. The state of the agent is
+     * wiped asynchronously.
+     */
+    public void release(ConsulAgentProcess process) {
+        PooledAgent agent = leased.remove(requireNonNull(process));
+        if (agent == null) {
+            throw new IllegalArgumentException(
+                "The process was not leased from this pool");
+        }
+        if (closed) {
+            agent.stop();
+            return;
+        }
+        pending.incrementAndGet();
+        recycling.add(agent);
+        try {
+            executor.execute(() -> recycle(agent));
+        } catch (RejectedExecutionException e) {
+            // The pool has been closed concurrently.
+            recycling.remove(agent);
+            pending.decrementAndGet();
+            agent.stop();
+        }
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(hits.get(), misses.get(), failures.get(),
+            totalWaitTime.get(), maxWaitTime.get());
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getLeasedCount() {
+        return leased.size();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.shutdownNow();
+        List<PooledAgent> agents = new ArrayList<>(leased.values());
+        leased.clear();
+        // The agents whose recycling has been discarded by shutdownNow().
+        agents.addAll(recycling);
+        recycling.clear();
+        idle.drainTo(agents);
+        for (PooledAgent agent : agents) {
+            agent.stop();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The pool is closed");
+        }
+    }
+
+    private void refill() {
+        while (!closed) {
+            int current = pending.get();
+            if (idle.size() + current >= size) {
+                return;
+            }
+            if (pending.compareAndSet(current, current + 1)) {
+                try {
+                    executor.execute(this::startAgent);
+                } catch (RejectedExecutionException e) {
+                    // The pool has been closed concurrently.
+                    pending.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void startAgent() {
+        try {
+            ConsulAgentExecutable executable =
+                starter.prepare(configFactory.get());
+            ConsulAgentProcess process;
+            try {
+                process = executable.start();
+            } catch (IOException | RuntimeException e) {
+                executable.stop();
+                throw e;
+            }
+            offer(new PooledAgent(executable, process));
+            lastFailure = null;
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            lastFailure = e;
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    private void recycle(PooledAgent agent) {
+        boolean recycled = false;
+        try {
+            agent.process.reset();
+            offer(new PooledAgent(agent.executable, agent.process));
+            recycled = true;
+        } catch (IOException | RuntimeException e) {
+            agent.stop();
+        } finally {
+            recycling.remove(agent);
+            pending.decrementAndGet();
+        }
+        if (!recycled) {
+            refill();
+        }
+    }
+
+    private PooledAgent pollRunning() {
+        PooledAgent agent;
+        while ((agent = idle.pollLast()) != null
+            && !agent.process.isProcessRunning())
+        {
+            agent.stop();
+        }
+        return agent;
+    }
+
+    private void offer(PooledAgent agent) {
+        idle.offerLast(agent);
+        if (closed && idle.remove(agent)) {
+            agent.stop();
+        }
+    }
+
+    private void evictIdleAgents() {
+        long now = System.nanoTime();
+        long maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleTime);
+        Iterator<PooledAgent> agents = idle.iterator();
+        while (agents.hasNext()) {
+            PooledAgent agent = agents.next();
+            if (now - agent.idleSince > maxIdleNanos && idle.remove(agent)) {
+                agent.stop();
+            }
+        }
+        refill();
+    }
+
+    private void recordWaitTime(long waitTime) {
+        totalWaitTime.addAndGet(waitTime);
+        long max;
+        do {
+            max = maxWaitTime.get();
+        } while (waitTime > max && !maxWaitTime.compareAndSet(max, waitTime));
+    }
+
+    /**
+     * A snapshot of the pool statistics. All times are in nanoseconds.
+     */
+    public static final class Statistics {
+
+        private final long hits;
+        private final long misses;
+        private final long failures;
+        private final long totalWaitTime;
+        private final long maxWaitTime;
+
+        Statistics(long hits, long misses, long failures, long totalWaitTime,
+            long maxWaitTime)
+        {
+            this.hits = hits;
+            this.misses = misses;
+            this.failures = failures;
+            this.totalWaitTime = totalWaitTime;
+            this.maxWaitTime = maxWaitTime;
+        }
+
+        /**
+         * Returns the number of leases served by an idle agent.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of leases which had to wait for an agent.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Returns the number of agents which could not be started.
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTotalWaitTime() {
+            return totalWaitTime;
+        }
+
+        public long getMaxWaitTime() {
+            return maxWaitTime;
+        }
+
+        public long getAverageWaitTime() {
+            long leases = hits + misses;
+            return leases == 0 ? 0 : totalWaitTime / leases;
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics[hits=" + hits
+                + ", misses=" + misses
+                + ", failures=" + failures
+                + ", averageWaitTime=" + getAverageWaitTime()
+                + "ns, maxWaitTime=" + maxWaitTime + "ns]";
+        }
+
+    }
+
+    private static final class PooledAgent {
+
+        final ConsulAgentExecutable executable;
+        final ConsulAgentProcess process;
+        final long idleSince;
+
+        PooledAgent(ConsulAgentExecutable executable,
+            ConsulAgentProcess process)
+        {
+            this.executable = executable;
+            this.process = process;
+            this.idleSince = System.nanoTime();
+        }
+
+        void stop() {
+            try {
+                process.stop();
+            } finally {
+                executable.stop();
+            }
+        }
+
+    }
+
+}
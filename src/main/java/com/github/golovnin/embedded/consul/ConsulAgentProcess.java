@@ -31,22 +31,36 @@
 package com.github.golovnin.embedded.consul;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 import de.flapdoodle.embed.process.config.IRuntimeConfig;
 import de.flapdoodle.embed.process.config.io.ProcessOutput;
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.extract.IExtractedFileSet;
-import de.flapdoodle.embed.process.io.LogWatchStreamProcessor;
+import de.flapdoodle.embed.process.io.IStreamProcessor;
 import de.flapdoodle.embed.process.io.Processors;
+import de.flapdoodle.embed.process.io.ReaderProcessor;
 import de.flapdoodle.embed.process.io.StreamToLineProcessor;
+import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
 import de.flapdoodle.embed.process.io.file.Files;
 import de.flapdoodle.embed.process.runtime.AbstractProcess;
 import de.flapdoodle.embed.process.runtime.ProcessControl;
@@ -62,13 +76,47 @@ public final class ConsulAgentProcess
         "Consul agent running!";
 
     private static final Set<String> KNOWN_FAILURE_MESSAGES =
-        Collections.singleton("Error starting agent");
+        Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "Error starting agent",
+            "==> Error",
+            "Config validation failed")));
 
+    private static final long EXIT_GRACE_PERIOD = 500;
 
-    private boolean stopped;
+    private static final long MIN_PROBE_DELAY = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final long MAX_PROBE_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * The maximum number of agents awaited concurrently by
+     * {@link #stopAll(Collection)}.
+     */
+    private static final int STOP_PARALLELISM = 8;
+
+    private static final ExecutorService STOP_EXECUTOR = newStopExecutor();
+
+    private volatile boolean stopped;
+    private volatile boolean signalled;
+    private ConsulProcessHandle handle;
+    private File dataDir;
     private File configFile;
     private Consumer<String> outConsumer;
     private Consumer<String> errConsumer;
+    private ConsulOutputDispatcher outDispatcher;
+    private ConsulOutputDispatcher errDispatcher;
+    private ReaderProcessor outReader;
+    private ReaderProcessor errReader;
+    private ConsulLifecycleListener listener;
+    private ConsulStartupWatch watch;
+    private long configWriteTime;
+    private long spawnTime;
+    private long runningTime;
+    private long readyTime;
+    private ConsulTimeline timeline;
+    private int startAttempts;
+    private volatile int reservedPorts;
 
     ConsulAgentProcess(Distribution distribution, ConsulAgentConfig config,
         IRuntimeConfig runtimeConfig, ConsulAgentExecutable executable)
@@ -81,13 +129,9 @@ public final class ConsulAgentProcess
     protected List<String> getCommandLine(Distribution distribution,
         ConsulAgentConfig config, IExtractedFileSet files) throws IOException
     {
-        configFile = File.createTempFile("embedded-consul-config", ".json");
-        try (
-            OutputStreamWriter writer = new OutputStreamWriter(
-                new FileOutputStream(configFile), "UTF-8")
-        ) {
-            writer.write(config.toJson());
-        }
+        long start = System.nanoTime();
+        configFile = ConsulConfigFiles.acquire(config.toJson());
+        configWriteTime = System.nanoTime() - start;
 
         this.outConsumer = config.getOutConsumer();
         this.errConsumer = config.getErrConsumer();
@@ -106,7 +150,24 @@ public final class ConsulAgentProcess
         List<String> commandLine = new ArrayList<>();
         commandLine.add(Files.fileOf(files.baseDir(), files.executable()).getAbsolutePath());
         commandLine.add("agent");
-        commandLine.add("-dev");
+        if (config.isDev()) {
+            commandLine.add("-dev");
+        } else {
+            if (config.isServer()) {
+                commandLine.add("-server");
+                if (config.getBootstrapExpect() > 0) {
+                    commandLine.add("-bootstrap-expect="
+                        + config.getBootstrapExpect());
+                }
+            }
+            String dataDirectory = config.getDataDir();
+            if (dataDirectory == null || dataDirectory.isEmpty()) {
+                dataDir = Files.createTempDir(
+                    new PropertyOrPlatformTempDir(), "embedded-consul-data");
+                dataDirectory = dataDir.getAbsolutePath();
+            }
+            commandLine.add("-data-dir=" + dataDirectory);
+        }
         commandLine.add("-advertise=" + advertise);
         commandLine.add("-bind=" + bind);
         commandLine.add("-client=" + client);
@@ -122,67 +183,518 @@ public final class ConsulAgentProcess
         commandLine.add("-log-level=" + logLevel);
         commandLine.add("-node=" + node);
         commandLine.add("-node-id=" + nodeID);
+        for (String address : config.getRetryJoin()) {
+            commandLine.add("-retry-join=" + address);
+        }
 
         return commandLine;
     }
 
+    @Override
+    protected void onBeforeProcessStart(ProcessBuilder processBuilder,
+        ConsulAgentConfig config, IRuntimeConfig runtimeConfig)
+    {
+        processBuilder.environment().putAll(config.getEnvironment());
+        listener = ConsulRuntimeConfig.listenerOf(runtimeConfig);
+        listener.onPhase(ConsulLifecyclePhase.CONFIG_WRITE, configWriteTime);
+        spawnTime = System.nanoTime();
+    }
+
     @Override
     protected void onAfterProcessStart(ProcessControl process,
         IRuntimeConfig runtimeConfig) throws IOException
     {
+        try {
+            awaitStartup(process, runtimeConfig);
+        } catch (RuntimeException e) {
+            // AbstractProcess stops the process only on an IOException,
+            // e.g. a failing probe or listener would leave it running.
+            throw new IOException("Could not start process: " + e, e);
+        }
+    }
+
+    private void awaitStartup(ProcessControl process,
+        IRuntimeConfig runtimeConfig) throws IOException
+    {
+        long spawnedTime = System.nanoTime();
+        handle = ConsulProcessHandle.of(process);
+        if (handle != null) {
+            setProcessId(handle.pid());
+        }
+        listener.onPhase(ConsulLifecyclePhase.SPAWN, spawnedTime - spawnTime);
         ProcessOutput outputConfig = runtimeConfig.getProcessOutput();
-        LogWatchStreamProcessor logWatch = new LogWatchStreamProcessor(
-            SUCCESS_MESSAGE, KNOWN_FAILURE_MESSAGES,
-            StreamToLineProcessor.wrap(outputConfig.getOutput()));
-
-        Processors.connect(
-            process.getReader(),
-            new ConsulOutputProcessor(logWatch, outConsumer));
-        Processors.connect(
-            process.getError(),
-            new ConsulOutputProcessor(
-                StreamToLineProcessor.wrap(outputConfig.getError()),
-                errConsumer));
+        ConsulStartupWatch watch = new ConsulStartupWatch(SUCCESS_MESSAGE,
+            KNOWN_FAILURE_MESSAGES, getConfig().getOutputHistory());
+        this.watch = watch;
 
-        logWatch.waitForResult(getConfig().getStartupTimeout());
-        if (logWatch.isInitWithSuccess()) {
-            setProcessId(getProcessId());
+        ConsulAgentConfig config = getConfig();
+        Consumer<String> outLines = outConsumer;
+        Consumer<String> errLines = errConsumer;
+        if (config.getLogListener() != ConsulLogListener.NOP) {
+            ConsulLogParser parser = new ConsulLogParser(
+                config.getLogListener(), config.getLogEventLevel(),
+                config.getLogEventModules().toArray(new String[0]));
+            outLines = outLines.andThen(parser);
+            errLines = errLines.andThen(parser);
+        }
+        Consumer<String> out;
+        Consumer<String> err;
+        if (config.getAsyncOutputCapacity() > 0) {
+            outDispatcher = dispatcher(config, outLines,
+                config.getOutBatchConsumer());
+            errDispatcher = dispatcher(config, errLines,
+                config.getErrBatchConsumer());
+            out = outDispatcher;
+            err = errDispatcher;
         } else {
-            String failureFound = logWatch.getFailureFound();
-            if (failureFound == null) {
-                failureFound = "\n----------------------\n"
-                             + "The failure message was not found.\n"
-                             + "The process output may contain the cause:\n"
-                             + logWatch.getOutput();
+            out = combine(outLines, config.getOutBatchConsumer());
+            err = combine(errLines, config.getErrBatchConsumer());
+        }
+
+        ConsulTimeline timeline = new ConsulTimeline(spawnTime);
+        this.timeline = timeline;
+        IStreamProcessor stdout = new ConsulOutputProcessor(
+            new ConsulOutputProcessor(
+                watch.stdout(outputConfig.getOutput()), timeline::onLine),
+            out);
+        IStreamProcessor stderr = new ConsulOutputProcessor(
+            new ConsulOutputProcessor(
+                watch.stderr(outputConfig.getError()), timeline::onLine),
+            err);
+        // Output passed to user code, which may block, is read by dedicated
+        // threads, so that it cannot stall the other agents served by the
+        // same reactor thread.
+        if (mayBlock(config)
+            || !ConsulOutputReactor.connect(process, stdout, stderr))
+        {
+            outReader = Processors.connect(process.getReader(),
+                StreamToLineProcessor.wrap(stdout));
+            errReader = Processors.connect(process.getError(),
+                StreamToLineProcessor.wrap(stderr));
+        }
+
+        long timeout = config.getStartupTimeout();
+        long deadline = spawnTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            ConsulStartupWatch.State state = watch.awaitDecision(deadline);
+            if (state == ConsulStartupWatch.State.RUNNING) {
+                runningTime = System.nanoTime();
+                timeline.record(ConsulMilestone.RUNNING, runningTime);
+                waitUntilReady(watch, config.getReadiness(), deadline);
+                readyTime = System.nanoTime();
+                timeline.record(ConsulMilestone.READY, readyTime);
+                long firstLineTime = watch.getFirstLineTime();
+                listener.onPhase(ConsulLifecyclePhase.FIRST_OUTPUT,
+                    firstLineTime - spawnedTime);
+                listener.onPhase(ConsulLifecyclePhase.READY,
+                    readyTime - firstLineTime);
+                ConsulSeed seed = config.getSeed();
+                if (seed.hasEntries()) {
+                    // KV writes are rejected until a leader is elected.
+                    waitUntilReady(watch, ConsulReadiness.LEADER_ELECTED,
+                        deadline);
+                    long seedStart = System.nanoTime();
+                    seed.load(ConsulHttp.of(config));
+                    listener.onPhase(ConsulLifecyclePhase.SEED,
+                        System.nanoTime() - seedStart);
+                }
+                setProcessId(getProcessId());
+                return;
             }
+            throw startupFailure(process, watch, state);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while waiting for the Consul agent");
+        }
+    }
+
+    /**
+     * Records the milestone checked by a built-in probe, unless it has
+     * already been seen in the output.
+     */
+    private void recordMilestone(ConsulReadinessProbe probe, long nanoTime) {
+        if (probe == ConsulReadiness.LEADER_ELECTED) {
+            timeline.record(ConsulMilestone.LEADER_ELECTED, nanoTime);
+        } else if (probe == ConsulReadiness.CATALOG_SYNCED) {
+            timeline.record(ConsulMilestone.SYNCED, nanoTime);
+        }
+    }
+
+    private IOException startupFailure(ProcessControl process,
+        ConsulStartupWatch watch, ConsulStartupWatch.State state)
+        throws InterruptedException
+    {
+        boolean exited =
+            watch.awaitExit(EXIT_GRACE_PERIOD, TimeUnit.MILLISECONDS);
+        String reason = watch.getFailure();
+        if (reason == null) {
+            reason = state == ConsulStartupWatch.State.EXITED
+                ? "The process has exited"
+                : "The process did not start within "
+                    + getConfig().getStartupTimeout() + " ms";
+        }
+        StringBuilder message = new StringBuilder("Could not start process: ")
+            .append(reason);
+        if (exited) {
+            message.append(" (exit code ").append(process.waitFor()).append(')');
+        }
+        String lastLines = watch.getLastLines();
+        if (!lastLines.isEmpty()) {
+            message.append("\n----------------------\n")
+                .append("The last lines of the process output:\n")
+                .append(lastLines);
+        }
+        if (reason.contains(ConsulPortConflictException.MESSAGE)
+            || lastLines.contains(ConsulPortConflictException.MESSAGE))
+        {
+            return new ConsulPortConflictException(message.toString());
+        }
+        return new IOException(message.toString());
+    }
+
+    private void waitUntilReady(ConsulStartupWatch watch,
+        ConsulReadinessProbe probe, long deadline) throws IOException
+    {
+        ConsulAgentConfig config = getConfig();
+        long delay = MIN_PROBE_DELAY;
+        IOException lastFailure = null;
+        while (true) {
             try {
-                if (process.waitFor() != 0) {
-                    throw new IOException(
-                        "Could not start process: " + failureFound);
+                if (probe.isReady(config)) {
+                    recordMilestone(probe, System.nanoTime());
+                    return;
                 }
+            } catch (IOException e) {
+                lastFailure = e;
+            }
+            if (watch.hasExited()) {
+                throw new IOException("Consul agent has exited while waiting"
+                    + " for readiness (" + probe + ")\n"
+                    + watch.getLastLines(), lastFailure);
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new IOException("Consul agent did not become ready ("
+                    + probe + ") within " + config.getStartupTimeout()
+                    + " ms", lastFailure);
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(delay, remaining));
             } catch (InterruptedException e) {
-                throw new IOException(
-                    "Could not start process: " + failureFound, e);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                    "Interrupted while waiting for the Consul agent");
+            }
+            delay = Math.min(delay * 2, MAX_PROBE_DELAY);
+        }
+    }
+
+    /**
+     * Returns the time from spawning the agent process until the agent
+     * was considered ready by the configured {@link ConsulReadinessProbe}.
+     */
+    public long getTimeToReady(TimeUnit unit) {
+        return unit.convert(readyTime - spawnTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time spent by the configured {@link ConsulReadinessProbe}
+     * after the agent has logged that it is running.
+     */
+    public long getReadinessLatency(TimeUnit unit) {
+        return unit.convert(readyTime - runningTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of attempts needed to start the agent. The agent
+     * is started again with a fresh block of ports if it has been
+     * configured with {@link ConsulAgentConfig.Builder#randomPorts()} and
+     * could not bind one of its ports. {@link #getConfig()} returns the
+     * configuration with the ports actually used.
+     */
+    public int getStartAttempts() {
+        return startAttempts;
+    }
+
+    void setStartAttempts(int startAttempts) {
+        this.startAttempts = startAttempts;
+    }
+
+    /**
+     * Sets the first port of the block reserved for this agent by
+     * {@link ConsulPortAllocator}. The block is released when the agent
+     * is stopped.
+     */
+    void setReservedPorts(int base) {
+        this.reservedPorts = base;
+    }
+
+    /**
+     * Returns the times at which the agent reached the
+     * {@link ConsulMilestone}s during its startup.
+     */
+    public ConsulTimeline timeline() {
+        if (timeline == null) {
+            throw new IllegalStateException("Consul agent has not been started");
+        }
+        return timeline;
+    }
+
+    /**
+     * Returns the last lines of the output of the agent, the oldest line
+     * first. The number of retained lines is configured using
+     * {@link ConsulAgentConfig.Builder#outputHistory(int)}.
+     */
+    public List<String> getOutputHistory() {
+        return watch == null ? Collections.emptyList() : watch.getHistory();
+    }
+
+    /**
+     * Removes the state of the running agent, so that it can be reused
+     * by the next test: the KV store, the sessions, the prepared queries,
+     * the intentions and all services, checks and nodes registered in the
+     * catalog except the node of the agent itself.
+     *
+     * <p>The services and checks defined in the configuration, including
+     * the services of the {@link ConsulSeed}, are kept. The KV entries of
+     * the seed are loaded again, so that the agent looks like a freshly
+     * started one.
+     *
+     * <p>This method uses the HTTP API of the agent and is much faster
+     * than restarting the agent.
+     */
+    public void reset() throws IOException {
+        ConsulAgentConfig config = getConfig();
+        ConsulHttp http = ConsulHttp.of(config);
+        new ConsulAgentReset(http, config).reset();
+        ConsulSeed seed = config.getSeed();
+        if (seed.hasEntries()) {
+            seed.load(http);
+        }
+    }
+
+    /**
+     * Returns the number of output lines discarded by the
+     * {@link ConsulOverflowPolicy} of the asynchronous output consumers.
+     * Always {@code 0} if the output is delivered synchronously.
+     */
+    public long getDroppedOutputLines() {
+        long dropped = 0;
+        if (outDispatcher != null) {
+            dropped += outDispatcher.getDropped();
+        }
+        if (errDispatcher != null) {
+            dropped += errDispatcher.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * Returns {@code true} if the output of the agent is passed to user code
+     * on the reading thread, either to synchronous consumers or to
+     * a dispatcher which waits for a full queue.
+     */
+    private static boolean mayBlock(ConsulAgentConfig config) {
+        if (config.getAsyncOutputCapacity() > 0) {
+            return config.getOverflowPolicy() == ConsulOverflowPolicy.BLOCK;
+        }
+        return !ConsulAgentConfig.isNop(config.getOutConsumer())
+            || !ConsulAgentConfig.isNop(config.getErrConsumer())
+            || !ConsulAgentConfig.isNop(config.getOutBatchConsumer())
+            || !ConsulAgentConfig.isNop(config.getErrBatchConsumer())
+            || config.getLogListener() != ConsulLogListener.NOP;
+    }
+
+    private static ConsulOutputDispatcher dispatcher(ConsulAgentConfig config,
+        Consumer<String> lines, Consumer<List<String>> batches)
+    {
+        return new ConsulOutputDispatcher(config.getAsyncOutputCapacity(),
+            config.getOverflowPolicy(), MAX_BATCH_SIZE, batch -> {
+                batches.accept(batch);
+                batch.forEach(lines);
+            });
+    }
+
+    private static Consumer<String> combine(Consumer<String> lines,
+        Consumer<List<String>> batches)
+    {
+        if (ConsulAgentConfig.isNop(batches)) {
+            return lines;
+        }
+        return line -> {
+            lines.accept(line);
+            batches.accept(Collections.singletonList(line));
+        };
+    }
+
+    /**
+     * Stops all given agents concurrently. The stop signals are sent to
+     * all agents at once, then the agents are awaited by a small bounded
+     * number of threads, so that the total time is bounded by the slowest
+     * agent rather than the sum.
+     */
+    public static void stopAll(Collection<ConsulAgentProcess> processes) {
+        Map<ConsulStopSignal, List<ConsulAgentProcess>> bySignal =
+            new EnumMap<>(ConsulStopSignal.class);
+        for (ConsulAgentProcess process : processes) {
+            if (!process.stopped) {
+                bySignal.computeIfAbsent(process.getConfig().getStopSignal(),
+                    signal -> new ArrayList<>()).add(process);
+            }
+        }
+        for (Map.Entry<ConsulStopSignal, List<ConsulAgentProcess>> entry
+            : bySignal.entrySet())
+        {
+            List<Long> pids = new ArrayList<>(entry.getValue().size());
+            for (ConsulAgentProcess process : entry.getValue()) {
+                pids.add(process.getProcessId());
+            }
+            if (entry.getKey().send(pids)) {
+                for (ConsulAgentProcess process : entry.getValue()) {
+                    process.signalled = true;
+                }
+            }
+        }
+
+        List<CompletableFuture<Void>> stops = new ArrayList<>(processes.size());
+        for (ConsulAgentProcess process : processes) {
+            stops.add(CompletableFuture.runAsync(process::stop, STOP_EXECUTOR));
+        }
+        try {
+            CompletableFuture.allOf(
+                stops.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw e;
         }
     }
 
+    private static ExecutorService newStopExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            STOP_PARALLELISM, STOP_PARALLELISM, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ConsulThreadFactory("embedded-consul-stop"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @Override
     protected void stopInternal() {
         synchronized (this) {
             if (!stopped) {
                 stopped = true;
-                if (!sendKillToProcess()) {
+                long start = System.nanoTime();
+                if (!signalled && !getConfig().getStopSignal().send(
+                    Collections.singletonList(getProcessId())))
+                {
                     tryKillToProcess();
                 }
+                if (handle != null) {
+                    awaitExit(handle);
+                }
+                awaitReaders();
                 stopProcess();
+                if (listener != null) {
+                    listener.onPhase(ConsulLifecyclePhase.STOP,
+                        System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the process to exit within the stop timeout and kills it
+     * otherwise, so that {@link #stopProcess()} does not need to poll.
+     */
+    private void awaitExit(ConsulProcessHandle handle) {
+        try {
+            handle.onExit().get(getConfig().getStopTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            handle.destroy(true);
+        } catch (ExecutionException e) {
+            // The process has exited.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits within the stop timeout until the dedicated reader threads have
+     * read the output up to the exit of the process, because
+     * {@link #stopProcess()} closes the streams of the process.
+     */
+    private void awaitReaders() {
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(getConfig().getStopTimeout());
+        try {
+            for (ReaderProcessor reader : Arrays.asList(outReader, errReader)) {
+                long remaining = deadline - System.nanoTime();
+                if (reader != null && remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedJoin(reader, remaining);
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Returns {@code true} if the agent process is alive. On Java 9 and
+     * newer no {@code kill} command is forked to find out.
+     */
+    @Override
+    public boolean isProcessRunning() {
+        ConsulProcessHandle handle = this.handle;
+        return handle != null ? handle.isAlive() : super.isProcessRunning();
+    }
+
+    /**
+     * Returns a future which is completed when the agent process has
+     * exited, e.g. after {@link #stopAsync()}.
+     */
+    public CompletableFuture<Void> onExit() {
+        ConsulProcessHandle handle = this.handle;
+        if (handle != null) {
+            return handle.onExit();
+        }
+        return CompletableFuture.runAsync(() -> {
+            try {
+                waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, ConsulAgentExecutable.ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Stops the agent asynchronously. The returned future is completed
+     * when the agent has been stopped.
+     */
+    public CompletableFuture<Void> stopAsync() {
+        return CompletableFuture.runAsync(this::stop,
+            ConsulAgentExecutable.ASYNC_EXECUTOR);
+    }
+
     @Override
     protected void cleanupInternal() {
-        Files.forceDelete(configFile);
+        if (reservedPorts != 0) {
+            ConsulPortAllocator.release(reservedPorts);
+            reservedPorts = 0;
+        }
+        if (configFile != null) {
+            ConsulConfigFiles.release(getConfig().toJson());
+            configFile = null;
+        }
+        if (dataDir != null) {
+            Files.forceDelete(dataDir);
+        }
     }
 
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the state of a running Consul agent using the HTTP API.
+ *
+ * <p>The KV store is cleared with a single recursive delete. All other
+ * kinds of state are listed first and removed afterwards. The services
+ * and checks defined in the configuration of the agent are kept. The
+ * requests of all resets share a small bounded executor.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulAgentReset {
+
+    /**
+     * The maximum number of concurrent requests of all resets.
+     */
+    private static final int PARALLELISM = 4;
+
+    private static final ExecutorService EXECUTOR = newExecutor();
+
+    private static final String CONSUL_SERVICE = "consul";
+
+    private static final String SERF_HEALTH_CHECK = "serfHealth";
+
+    private final ConsulHttp http;
+    private final String node;
+    private final Set<String> services;
+    private final Set<String> checks;
+
+    /**
+     * Creates a reset which keeps the services and the checks defined in
+     * the given configuration.
+     */
+    ConsulAgentReset(ConsulHttp http, ConsulAgentConfig config) {
+        this(http, config.getNode(), serviceIds(config), checkIds(config));
+    }
+
+    /**
+     * @param services the IDs of the services to keep
+     * @param checks   the IDs of the node level checks to keep
+     */
+    ConsulAgentReset(ConsulHttp http, String node, Set<String> services,
+        Set<String> checks)
+    {
+        this.http = http;
+        this.node = node;
+        this.services = services;
+        this.checks = checks;
+    }
+
+    void reset() throws IOException {
+        // No task waits for another task, so that the resets cannot
+        // starve each other on the bounded executor.
+        List<CompletableFuture<?>> removals = new ArrayList<>();
+        removals.add(async(() -> http.delete("/v1/kv/?recurse")));
+        List<CompletableFuture<List<Task>>> lookups = new ArrayList<>();
+        lookups.add(lookup(this::sessions));
+        lookups.add(lookup(this::preparedQueries));
+        lookups.add(lookup(this::intentions));
+        lookups.add(lookup(this::agentServices));
+        lookups.add(lookup(this::agentChecks));
+        lookups.add(lookup(this::catalog));
+        for (CompletableFuture<List<Task>> lookup : lookups) {
+            for (Task removal : join(lookup)) {
+                removals.add(async(removal));
+            }
+        }
+        join(CompletableFuture.allOf(
+            removals.toArray(new CompletableFuture<?>[0])));
+    }
+
+    private List<Task> sessions() throws IOException {
+        List<Task> removals = new ArrayList<>();
+        for (Map<String, Object> session : list("/v1/session/list")) {
+            String id = encodedString(session, "ID");
+            removals.add(() -> http.put("/v1/session/destroy/" + id, ""));
+        }
+        return removals;
+    }
+
+    private List<Task> preparedQueries() throws IOException {
+        List<Task> removals = new ArrayList<>();
+        for (Map<String, Object> query : list("/v1/query")) {
+            String id = encodedString(query, "ID");
+            removals.add(() -> http.delete("/v1/query/" + id));
+        }
+        return removals;
+    }
+
+    private List<Task> intentions() throws IOException {
+        // Intentions are supported since Consul 1.2.0. Older agents
+        // respond with 404, which results in an empty list.
+        List<Task> removals = new ArrayList<>();
+        for (Map<String, Object> intention : list("/v1/connect/intentions")) {
+            String id = encodedString(intention, "ID");
+            removals.add(() -> http.delete("/v1/connect/intentions/" + id));
+        }
+        return removals;
+    }
+
+    private List<Task> agentServices() throws IOException {
+        List<Task> removals = new ArrayList<>();
+        for (String id : ConsulJson.parseObject(http.get("/v1/agent/services")).keySet()) {
+            if (!CONSUL_SERVICE.equals(id) && !services.contains(id)) {
+                String path = "/v1/agent/service/deregister/" + ConsulHttp.encode(id);
+                removals.add(() -> http.put(path, ""));
+            }
+        }
+        return removals;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Task> agentChecks() throws IOException {
+        List<Task> removals = new ArrayList<>();
+        Map<String, Object> agentChecks =
+            ConsulJson.parseObject(http.get("/v1/agent/checks"));
+        for (Map.Entry<String, Object> check : agentChecks.entrySet()) {
+            String id = check.getKey();
+            Object serviceId = ((Map<String, Object>) check.getValue()).get("ServiceID");
+            if (!SERF_HEALTH_CHECK.equals(id) && !checks.contains(id)
+                && !services.contains(serviceId))
+            {
+                String path = "/v1/agent/check/deregister/" + ConsulHttp.encode(id);
+                removals.add(() -> http.put(path, ""));
+            }
+        }
+        return removals;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Task> catalog() throws IOException {
+        // Nodes which are members of the cluster would be registered
+        // again by the anti-entropy sync, so only the external nodes
+        // registered directly in the catalog are removed.
+        Set<String> members = new HashSet<>();
+        members.add(node);
+        for (Map<String, Object> member : list("/v1/agent/members")) {
+            members.add((String) member.get("Name"));
+        }
+        List<Task> removals = new ArrayList<>();
+        for (Map<String, Object> entry : list("/v1/catalog/nodes")) {
+            String name = (String) entry.get("Node");
+            if (!members.contains(name)) {
+                String body = "{\"Node\":" + ConsulJson.quote(name) + '}';
+                removals.add(() -> http.put("/v1/catalog/deregister", body));
+            }
+        }
+        // Services registered directly in the catalog for the node of
+        // the agent are not known to the agent itself.
+        Map<String, Object> catalogServices = (Map<String, Object>) ConsulJson
+            .parseObject(http.get("/v1/catalog/node/" + ConsulHttp.encode(node)))
+            .get("Services");
+        if (catalogServices != null) {
+            for (String id : catalogServices.keySet()) {
+                if (!CONSUL_SERVICE.equals(id) && !services.contains(id)) {
+                    String body = "{\"Node\":" + ConsulJson.quote(node)
+                        + ",\"ServiceID\":" + ConsulJson.quote(id) + '}';
+                    removals.add(() -> http.put("/v1/catalog/deregister", body));
+                }
+            }
+        }
+        return removals;
+    }
+
+    private List<Map<String, Object>> list(String path) throws IOException {
+        return ConsulJson.parseObjects(http.get(path));
+    }
+
+    private static String encodedString(Map<String, Object> map, String key) {
+        return ConsulHttp.encode(String.valueOf(map.get(key)));
+    }
+
+    private static Set<String> serviceIds(ConsulAgentConfig config) {
+        Set<String> ids = new HashSet<>();
+        List<ConsulService> services = new ArrayList<>(config.getServices());
+        services.addAll(config.getSeed().getServices());
+        for (ConsulService service : services) {
+            // Consul uses the name of a service as its ID by default.
+            ids.add(service.getId().isEmpty()
+                ? service.getName() : service.getId());
+        }
+        return ids;
+    }
+
+    private static Set<String> checkIds(ConsulAgentConfig config) {
+        Set<String> ids = new HashSet<>();
+        for (ConsulCheck check : config.getChecks()) {
+            ids.add(check.getId().isEmpty() ? check.getName() : check.getId());
+        }
+        return ids;
+    }
+
+    private static ExecutorService newExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            PARALLELISM, PARALLELISM, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ConsulThreadFactory("embedded-consul-reset"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static CompletableFuture<Void> async(Task task) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    private static CompletableFuture<List<Task>> lookup(Lookup lookup) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return lookup.run();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            throw new IOException("Could not reset the Consul agent", cause);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+
+        void run() throws IOException;
+
+    }
+
+    @FunctionalInterface
+    private interface Lookup {
+
+        List<Task> run() throws IOException;
+
+    }
+
+}
@@ -30,10 +30,17 @@
 
 package com.github.golovnin.embedded.consul;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
 import de.flapdoodle.embed.process.config.IRuntimeConfig;
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.extract.IExtractedFileSet;
 import de.flapdoodle.embed.process.runtime.Starter;
+import de.flapdoodle.embed.process.store.IArtifactStore;
 
 /**
  * @author Andrej Golovnin
@@ -42,18 +49,118 @@ public final class ConsulAgentStarter
     extends Starter<ConsulAgentConfig, ConsulAgentExecutable, ConsulAgentProcess>
 {
 
+    private final ConsulLifecycleListener listener;
+
     private ConsulAgentStarter(IRuntimeConfig config) {
         super(config);
+        this.listener = ConsulRuntimeConfig.listenerOf(config);
     }
 
     public static ConsulAgentStarter getInstance(IRuntimeConfig config) {
         return new ConsulAgentStarter(config);
     }
 
+    /**
+     * Returns a starter which uses the given artifact store, e.g. one
+     * built by {@link ConsulArtifactStoreBuilder}.
+     */
+    public static ConsulAgentStarter getInstance(IArtifactStore artifactStore) {
+        return getInstance(
+            ConsulBuilders.runtimeConfigBuilder(artifactStore).build());
+    }
+
     public static ConsulAgentStarter getDefaultInstance() {
         return getInstance(ConsulBuilders.runtimeConfigBuilder().build());
     }
 
+    /**
+     * Prepares and starts the agents for all given configurations
+     * concurrently and waits until all of them are started. If an agent
+     * cannot be started, the startup of all other agents is aborted and
+     * the already prepared executables are stopped together with their
+     * agents.
+     */
+    public List<ConsulAgentProcess> startAll(List<ConsulAgentConfig> configs)
+        throws IOException
+    {
+        List<ConsulStartFuture> futures = new ArrayList<>(configs.size());
+        List<ConsulAgentExecutable> executables = new ArrayList<>(configs.size());
+        for (ConsulAgentConfig config : configs) {
+            ConsulStartFuture future = new ConsulStartFuture();
+            ConsulAgentExecutable.ASYNC_EXECUTOR.execute(
+                () -> future.run(() -> start(config, future, executables)));
+            futures.add(future);
+        }
+        List<ConsulAgentProcess> processes = new ArrayList<>(configs.size());
+        try {
+            for (ConsulStartFuture future : futures) {
+                processes.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            abort(futures, executables);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not start Consul agent", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(futures, executables);
+            throw new InterruptedIOException(
+                "Interrupted while starting Consul agents");
+        }
+        return processes;
+    }
+
+    private ConsulAgentProcess start(ConsulAgentConfig config,
+        ConsulStartFuture future, List<ConsulAgentExecutable> executables)
+        throws IOException
+    {
+        ConsulAgentExecutable executable = prepare(config);
+        synchronized (executables) {
+            if (future.isCancelled()) {
+                // Prepared after abort() collected the executables.
+                executable.stop();
+                throw new InterruptedIOException(
+                    "Startup of Consul agent aborted");
+            }
+            executables.add(executable);
+        }
+        try {
+            return executable.start();
+        } catch (IOException | RuntimeException e) {
+            executable.stop();
+            throw e;
+        }
+    }
+
+    private static void abort(List<ConsulStartFuture> futures,
+        List<ConsulAgentExecutable> executables)
+    {
+        for (ConsulStartFuture future : futures) {
+            future.cancel(true);
+        }
+        List<ConsulAgentExecutable> prepared;
+        synchronized (executables) {
+            prepared = new ArrayList<>(executables);
+        }
+        // Stopping an executable waits for a start in progress, then stops
+        // its agent and removes the extracted files.
+        for (ConsulAgentExecutable executable : prepared) {
+            executable.stop();
+        }
+    }
+
+    @Override
+    public ConsulAgentExecutable prepare(ConsulAgentConfig config,
+        Distribution distribution)
+    {
+        long start = System.nanoTime();
+        ConsulAgentExecutable executable = super.prepare(config, distribution);
+        listener.onPhase(ConsulLifecyclePhase.RESOLVE, System.nanoTime() - start);
+        return executable;
+    }
+
     @Override
     protected ConsulAgentExecutable newExecutable(ConsulAgentConfig config,
         Distribution distribution, IRuntimeConfig runtime,
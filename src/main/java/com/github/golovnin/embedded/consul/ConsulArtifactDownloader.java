@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.flapdoodle.embed.process.config.store.IDownloadConfig;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.io.progress.IProgressListener;
+import de.flapdoodle.embed.process.store.IDownloader;
+
+/**
+ * Downloads Consul archives either from a mirror URL or from a local
+ * mirror directory and verifies them against the {@code SHA256SUMS} file
+ * of the release. In the offline mode nothing is downloaded at all.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulArtifactDownloader implements IDownloader {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File mirrorDir;
+    private final boolean offline;
+    private final boolean verify;
+    private final Map<String, String> digests;
+
+    ConsulArtifactDownloader(File mirrorDir, boolean offline, boolean verify) {
+        this.mirrorDir = mirrorDir;
+        this.offline = offline;
+        this.verify = verify;
+        this.digests = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public String getDownloadUrl(IDownloadConfig config,
+        Distribution distribution)
+    {
+        return location(config, distribution,
+            config.getPackageResolver().getPath(distribution));
+    }
+
+    @Override
+    public File download(IDownloadConfig config, Distribution distribution)
+        throws IOException
+    {
+        String path = config.getPackageResolver().getPath(distribution);
+        if (offline) {
+            throw new IOException("Consul archive " + path
+                + " is not in the artifact cache "
+                + config.getArtifactStorePath().asFile()
+                + " and the offline mode is enabled");
+        }
+        String location = location(config, distribution, path);
+        IProgressListener listener = config.getProgressListener();
+        listener.start(location);
+        File file = File.createTempFile(config.getDownloadPrefix(), ".zip");
+        MessageDigest digest = ConsulChecksums.newDigest();
+        try {
+            try (
+                InputStream in = open(config, location);
+                OutputStream out = new FileOutputStream(file)
+            ) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            String actual = ConsulChecksums.toHex(digest.digest());
+            if (verify) {
+                String expected = expectedDigest(config, distribution);
+                if (!expected.equals(actual)) {
+                    throw new IOException("SHA-256 of " + location + " is "
+                        + actual + ", expected " + expected);
+                }
+            }
+            digests.put(path, actual);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+        listener.done(location);
+        return file;
+    }
+
+    /**
+     * Returns the digest of the archive downloaded for the given path
+     * and forgets it.
+     */
+    String takeDigest(String path) {
+        return digests.remove(path);
+    }
+
+    /**
+     * Returns the expected digest of the archive of the given
+     * distribution. The {@code SHA256SUMS} file of the release is read
+     * from the artifact cache and downloaded only if it is missing.
+     */
+    String expectedDigest(IDownloadConfig config, Distribution distribution)
+        throws IOException
+    {
+        String version = distribution.getVersion().asInDownloadPath();
+        String sumsPath = version + "/consul_" + version + "_SHA256SUMS";
+        File sums = new File(config.getArtifactStorePath().asFile(), sumsPath);
+        if (!sums.isFile()) {
+            if (offline) {
+                throw new IOException("Checksums " + sumsPath
+                    + " are not in the artifact cache " + sums.getParentFile()
+                    + " and the offline mode is enabled");
+            }
+            File parent = sums.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            Path temp = Files.createTempFile(parent.toPath(), sums.getName(),
+                ".tmp");
+            String location = location(config, distribution, sumsPath);
+            try {
+                try (InputStream in = open(config, location)) {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(temp, sums.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        String fileName = config.getPackageResolver().getPath(distribution);
+        fileName = fileName.substring(fileName.lastIndexOf('/') + 1);
+        String digest = ConsulChecksums.findDigest(
+            new String(Files.readAllBytes(sums.toPath()),
+                StandardCharsets.US_ASCII),
+            fileName);
+        if (digest == null) {
+            throw new IOException(fileName + " is not listed in " + sums);
+        }
+        return digest;
+    }
+
+    private String location(IDownloadConfig config,
+        Distribution distribution, String path)
+    {
+        if (mirrorDir != null) {
+            return new File(mirrorDir, path).getAbsolutePath();
+        }
+        return config.getDownloadPath().getPath(distribution) + path;
+    }
+
+    private InputStream open(IDownloadConfig config, String location)
+        throws IOException
+    {
+        if (mirrorDir != null) {
+            return new FileInputStream(location);
+        }
+        // The default proxy factory of flapdoodle returns no proxy at all.
+        Proxy proxy = config.proxyFactory().createProxy();
+        URL url = new URL(location);
+        URLConnection connection = proxy == null
+            ? url.openConnection()
+            : url.openConnection(proxy);
+        connection.setRequestProperty("User-Agent", config.getUserAgent());
+        connection.setConnectTimeout(
+            config.getTimeoutConfig().getConnectionTimeout());
+        connection.setReadTimeout(config.getTimeoutConfig().getReadTimeout());
+        return connection.getInputStream();
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.config.store.IDownloadConfig;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.extract.IExtractedFileSet;
+import de.flapdoodle.embed.process.extract.ImmutableExtractedFileSet;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+
+/**
+ * An artifact store which verifies cached Consul archives and extracts
+ * the Consul binary once per version. Archives are downloaded by the
+ * delegate store.
+ *
+ * <p>The store may be used by several JVMs at the same time, e.g. by
+ * parallel test forks. Downloading and extraction are guarded by a file
+ * lock per distribution. The binary is extracted into a temporary file
+ * and atomically renamed into place, so that other JVMs never see
+ * a partially written binary. Once a binary has been extracted, its
+ * digest is recorded and the archive is neither checked nor unzipped
+ * again as long as the binary is unchanged.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulArtifactStore implements IArtifactStore {
+
+    /**
+     * File locks are held by the whole JVM, so the threads of one JVM
+     * must be coordinated separately.
+     */
+    private static final Map<String, Object> JVM_LOCKS =
+        new ConcurrentHashMap<>();
+
+    private final IDownloadConfig downloadConfig;
+    private final ConsulArtifactDownloader downloader;
+    private final IArtifactStore delegate;
+    private final File extractDir;
+    private final boolean verify;
+    private final ConsulLifecycleListener listener;
+
+    ConsulArtifactStore(IDownloadConfig downloadConfig,
+        ConsulArtifactDownloader downloader, IArtifactStore delegate,
+        File extractDir, boolean verify, ConsulLifecycleListener listener)
+    {
+        this.downloadConfig = downloadConfig;
+        this.downloader = downloader;
+        this.delegate = delegate;
+        this.extractDir = extractDir;
+        this.verify = verify;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a view of this store which reports the durations of
+     * downloads, verifications and extractions to the given listener.
+     */
+    ConsulArtifactStore withListener(ConsulLifecycleListener listener) {
+        return new ConsulArtifactStore(downloadConfig, downloader, delegate,
+            extractDir, verify, listener);
+    }
+
+    @Override
+    public boolean checkDistribution(Distribution distribution)
+        throws IOException
+    {
+        if (ConsulChecksums.trustedDigest(executable(distribution)) != null) {
+            return true;
+        }
+        return withLock(distribution, () -> checkArchive(distribution));
+    }
+
+    @Override
+    public IExtractedFileSet extractFileSet(Distribution distribution)
+        throws IOException
+    {
+        File executable = executable(distribution);
+        if (ConsulChecksums.trustedDigest(executable) == null) {
+            withLock(distribution, () -> {
+                if (ConsulChecksums.trustedDigest(executable) == null) {
+                    if (!checkArchive(distribution)) {
+                        throw new IOException(
+                            "Consul archive is not available for "
+                            + distribution);
+                    }
+                    long start = System.nanoTime();
+                    extract(distribution, executable);
+                    listener.onPhase(ConsulLifecyclePhase.EXTRACT,
+                        System.nanoTime() - start);
+                }
+                return null;
+            });
+        }
+        return ImmutableExtractedFileSet.builder(executable.getParentFile())
+            .baseDirIsGenerated(false)
+            .file(FileType.Executable, new File(executable.getName()))
+            .build();
+    }
+
+    @Override
+    public void removeFileSet(Distribution distribution,
+        IExtractedFileSet files)
+    {
+        // The extracted binary is shared by all agents and JVMs.
+    }
+
+    private boolean checkArchive(Distribution distribution) throws IOException {
+        String path = downloadConfig.getPackageResolver().getPath(distribution);
+        File archive = archive(distribution);
+        if (verify && archive.isFile()
+            && ConsulChecksums.trustedDigest(archive) == null)
+        {
+            long start = System.nanoTime();
+            String expected =
+                downloader.expectedDigest(downloadConfig, distribution);
+            String actual = ConsulChecksums.sha256(archive);
+            listener.onPhase(ConsulLifecyclePhase.VERIFY,
+                System.nanoTime() - start);
+            if (expected.equals(actual)) {
+                ConsulChecksums.record(archive, expected);
+            } else {
+                // Let the delegate download the archive again.
+                ConsulChecksums.forget(archive);
+                if (!archive.delete()) {
+                    throw new IOException("Could not delete corrupted " + archive);
+                }
+            }
+        }
+        long start = System.nanoTime();
+        boolean available = delegate.checkDistribution(distribution);
+        String digest = downloader.takeDigest(path);
+        if (digest != null) {
+            listener.onPhase(ConsulLifecyclePhase.DOWNLOAD,
+                System.nanoTime() - start);
+            if (available && archive.isFile()) {
+                ConsulChecksums.record(archive, digest);
+            }
+        }
+        return available;
+    }
+
+    private void extract(Distribution distribution, File executable)
+        throws IOException
+    {
+        File archive = archive(distribution);
+        Path temp = Files.createTempFile(executable.getParentFile().toPath(),
+            executable.getName(), ".tmp");
+        try {
+            MessageDigest digest = ConsulChecksums.newDigest();
+            try (ZipFile zip = new ZipFile(archive)) {
+                ZipEntry entry = findExecutable(zip, distribution);
+                try (
+                    InputStream in = zip.getInputStream(entry);
+                    OutputStream out = new DigestOutputStream(
+                        Files.newOutputStream(temp), digest)
+                ) {
+                    byte[] buffer = new byte[65536];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+            if (!temp.toFile().setExecutable(true)) {
+                throw new IOException("Could not make " + temp + " executable");
+            }
+            try {
+                Files.move(temp, executable.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, executable.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            ConsulChecksums.record(executable,
+                ConsulChecksums.toHex(digest.digest()));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private ZipEntry findExecutable(ZipFile zip, Distribution distribution)
+        throws IOException
+    {
+        FileSet fileSet =
+            downloadConfig.getPackageResolver().getFileSet(distribution);
+        for (FileSet.Entry fileEntry : fileSet.entries()) {
+            if (fileEntry.type() != FileType.Executable) {
+                continue;
+            }
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && fileEntry.matchingPattern()
+                    .matcher(entry.getName()).matches())
+                {
+                    return entry;
+                }
+            }
+        }
+        throw new IOException("No Consul executable found in " + zip.getName());
+    }
+
+    private <T> T withLock(Distribution distribution, LockedAction<T> action)
+        throws IOException
+    {
+        File lockFile = new File(extractDir, key(distribution) + ".lock");
+        File parent = lockFile.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create " + parent);
+        }
+        Object jvmLock = JVM_LOCKS.computeIfAbsent(
+            lockFile.getCanonicalPath(), path -> new Object());
+        synchronized (jvmLock) {
+            try (
+                FileChannel channel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+            ) {
+                // The lock is released when the channel is closed.
+                channel.lock();
+                return action.run();
+            }
+        }
+    }
+
+    private File archive(Distribution distribution) {
+        return new File(downloadConfig.getArtifactStorePath().asFile(),
+            downloadConfig.getPackageResolver().getPath(distribution));
+    }
+
+    private File executable(Distribution distribution) throws IOException {
+        File dir = new File(extractDir, key(distribution));
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Could not create " + dir);
+        }
+        String name = null;
+        for (FileSet.Entry entry : downloadConfig.getPackageResolver()
+            .getFileSet(distribution).entries())
+        {
+            if (entry.type() == FileType.Executable) {
+                name = entry.destination();
+            }
+        }
+        return new File(dir, name);
+    }
+
+    private static String key(Distribution distribution) {
+        return distribution.getPlatform().name() + '-'
+            + distribution.getBitsize().name() + "--"
+            + distribution.getVersion().asInDownloadPath();
+    }
+
+    @FunctionalInterface
+    private interface LockedAction<T> {
+
+        T run() throws IOException;
+
+    }
+
+}
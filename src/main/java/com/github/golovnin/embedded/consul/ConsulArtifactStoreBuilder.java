@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.File;
+
+import de.flapdoodle.embed.process.builder.AbstractBuilder;
+import de.flapdoodle.embed.process.builder.TypedProperty;
+import de.flapdoodle.embed.process.config.store.IDownloadConfig;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.directories.FixedPath;
+import de.flapdoodle.embed.process.io.directories.IDirectory;
+import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
+import de.flapdoodle.embed.process.store.ArtifactStore;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds the artifact store used to download, cache and extract Consul
+ * binaries.
+ *
+ * <p>By default archives are downloaded from
+ * {@value #DEFAULT_MIRROR}, verified against the {@code SHA256SUMS}
+ * file of the release and cached in {@code ~/.embedded-consul}.
+ * The defaults for the mirror and the offline mode can be changed
+ * using the system properties {@value #MIRROR_PROPERTY} and
+ * {@value #OFFLINE_PROPERTY}. The mirror may be either a URL or
+ * a local directory with the same layout as the release site.
+ *
+ * <p>Example:
+ * <pre>
+ * IArtifactStore store = new ConsulArtifactStoreBuilder()
+ *     .mirror("https://mirror.example.com/consul/")
+ *     .offline(false)
+ *     .build();
+ * ConsulAgentStarter starter = ConsulAgentStarter.getInstance(store);
+ * </pre>
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulArtifactStoreBuilder extends AbstractBuilder<IArtifactStore> {
+
+    public static final String DEFAULT_MIRROR =
+        "https://releases.hashicorp.com/consul/";
+
+    public static final String MIRROR_PROPERTY = "embedded.consul.mirror";
+
+    public static final String OFFLINE_PROPERTY = "embedded.consul.offline";
+
+    private static final TypedProperty<String> CACHE_DIR =
+        TypedProperty.with("cache-dir", String.class);
+
+    private static final TypedProperty<String> MIRROR =
+        TypedProperty.with("mirror", String.class);
+
+    private static final TypedProperty<Boolean> OFFLINE =
+        TypedProperty.with("offline", Boolean.class);
+
+    private static final TypedProperty<Boolean> VERIFY =
+        TypedProperty.with("verify", Boolean.class);
+
+    public ConsulArtifactStoreBuilder() {
+        property(CACHE_DIR).setDefault("");
+        property(MIRROR).setDefault(
+            System.getProperty(MIRROR_PROPERTY, DEFAULT_MIRROR));
+        property(OFFLINE).setDefault(Boolean.getBoolean(OFFLINE_PROPERTY));
+        property(VERIFY).setDefault(true);
+    }
+
+    /**
+     * Sets the directory used to cache downloaded archives and extracted
+     * binaries. The default is {@code ~/.embedded-consul}.
+     */
+    public ConsulArtifactStoreBuilder cacheDir(String cacheDir) {
+        property(CACHE_DIR).set(requireNonNull(cacheDir));
+        return this;
+    }
+
+    /**
+     * Sets the mirror to download the archives from. The mirror is either
+     * a URL or a path to a local directory.
+     */
+    public ConsulArtifactStoreBuilder mirror(String mirror) {
+        property(MIRROR).set(requireNonNull(mirror));
+        return this;
+    }
+
+    /**
+     * Enables the offline mode. In the offline mode the network is never
+     * used and a missing archive causes an immediate failure.
+     */
+    public ConsulArtifactStoreBuilder offline(boolean offline) {
+        property(OFFLINE).set(offline);
+        return this;
+    }
+
+    /**
+     * Enables or disables the verification of archives against the
+     * {@code SHA256SUMS} file of the release. Enabled by default.
+     */
+    public ConsulArtifactStoreBuilder verify(boolean verify) {
+        property(VERIFY).set(verify);
+        return this;
+    }
+
+    @Override
+    public IArtifactStore build() {
+        String cacheDir = property(CACHE_DIR).get();
+        String mirror = property(MIRROR).get();
+        boolean verify = property(VERIFY).get();
+        File mirrorDir = null;
+        if (!isURL(mirror)) {
+            mirrorDir = new File(mirror);
+        } else if (!mirror.endsWith("/")) {
+            mirror += "/";
+        }
+        IDirectory storePath = cacheDir.isEmpty()
+            ? ConsulBuilders.defaultCacheDir()
+            : new FixedPath(cacheDir);
+        IDownloadConfig downloadConfig =
+            ConsulBuilders.downloadConfigBuilder(mirror, storePath).build();
+        ConsulArtifactDownloader downloader = new ConsulArtifactDownloader(
+            mirrorDir, property(OFFLINE).get(), verify);
+        IArtifactStore delegate = new ArtifactStore(downloadConfig,
+            new PropertyOrPlatformTempDir(), new UUIDTempNaming(), downloader);
+        return new ConsulArtifactStore(downloadConfig, downloader, delegate,
+            new File(storePath.asFile(), "extracted"), verify,
+            ConsulLifecycleListener.NOP);
+    }
+
+    private static boolean isURL(String mirror) {
+        int colon = mirror.indexOf("://");
+        return colon > 1;
+    }
+
+}
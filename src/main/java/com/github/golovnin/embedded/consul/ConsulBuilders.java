@@ -33,14 +33,12 @@ package com.github.golovnin.embedded.consul;
 import de.flapdoodle.embed.process.config.RuntimeConfigBuilder;
 import de.flapdoodle.embed.process.config.io.ProcessOutput;
 import de.flapdoodle.embed.process.config.store.DownloadConfigBuilder;
-import de.flapdoodle.embed.process.extract.ITempNaming;
 import de.flapdoodle.embed.process.extract.UUIDTempNaming;
-import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
+import de.flapdoodle.embed.process.io.directories.IDirectory;
 import de.flapdoodle.embed.process.io.directories.UserHome;
 import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
 import de.flapdoodle.embed.process.runtime.ICommandLinePostProcessor;
-import de.flapdoodle.embed.process.store.Downloader;
-import de.flapdoodle.embed.process.store.ExtractedArtifactStoreBuilder;
+import de.flapdoodle.embed.process.store.IArtifactStore;
 
 /**
  * @author Andrej Golovnin
@@ -51,41 +49,32 @@ final class ConsulBuilders {
         // NOP
     }
 
-    static DownloadConfigBuilder downloadConfigBuilder() {
+    static IDirectory defaultCacheDir() {
+        return new UserHome(".embedded-consul");
+    }
+
+    static DownloadConfigBuilder downloadConfigBuilder(String downloadPath,
+        IDirectory artifactStorePath)
+    {
         return new DownloadConfigBuilder()
             .fileNaming(new UUIDTempNaming())
-            .downloadPath("https://releases.hashicorp.com/consul/")
+            .downloadPath(downloadPath)
             .progressListener(new StandardConsoleProgressListener())
-            .artifactStorePath(new UserHome(".embedded-consul"))
+            .artifactStorePath(artifactStorePath)
             .downloadPrefix("embedded-consul-download")
             .packageResolver(new ConsulPackageResolver())
             .userAgent("Mozilla/5.0 (compatible; Embedded Consul; +https://github.com/golovnin/embedded-consul)");
     }
 
     static RuntimeConfigBuilder runtimeConfigBuilder() {
+        return runtimeConfigBuilder(new ConsulArtifactStoreBuilder().build());
+    }
+
+    static RuntimeConfigBuilder runtimeConfigBuilder(IArtifactStore store) {
         return new RuntimeConfigBuilder()
             .processOutput(ProcessOutput.getDefaultInstance("consul"))
             .commandLinePostProcessor(new ICommandLinePostProcessor.Noop())
-            .artifactStore(storeBuilder().build());
-    }
-
-    static ExtractedArtifactStoreBuilder storeBuilder() {
-        return new ExtractedArtifactStoreBuilder()
-            .extractDir(new UserHome(".embedded-consul/extracted"))
-            .extractExecutableNaming(new OriginNaming())
-            .tempDir(new PropertyOrPlatformTempDir())
-            .executableNaming(new UUIDTempNaming())
-            .download(downloadConfigBuilder().build())
-            .downloader(new Downloader());
-    }
-
-    private static final class OriginNaming implements ITempNaming {
-
-        @Override
-        public String nameFor(String prefix, String postfix) {
-            return postfix;
-        }
-
+            .artifactStore(store);
     }
 
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.builder.AbstractBuilder;
+import de.flapdoodle.embed.process.builder.TypedProperty;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A health check registered through the configuration file of the agent.
+ * Exactly one of {@code http}, {@code tcp} or {@code ttl} must be set.
+ *
+ * @author Andrej Golovnin
+ * @see ConsulAgentConfig.Builder#checks(java.util.List)
+ * @see ConsulService.Builder#checks(java.util.List)
+ */
+public final class ConsulCheck {
+
+    private final String id;
+    private final String name;
+    private final String http;
+    private final String tcp;
+    private final long ttl;
+    private final long interval;
+    private final long timeout;
+
+    ConsulCheck(String id, String name, String http, String tcp, long ttl,
+        long interval, long timeout)
+    {
+        this.id = id;
+        this.name = name;
+        this.http = http;
+        this.tcp = tcp;
+        this.ttl = ttl;
+        this.interval = interval;
+        this.timeout = timeout;
+    }
+
+    public static final class Builder extends AbstractBuilder<ConsulCheck> {
+
+        private static final TypedProperty<String> ID =
+            TypedProperty.with("id", String.class);
+
+        private static final TypedProperty<String> NAME =
+            TypedProperty.with("name", String.class);
+
+        private static final TypedProperty<String> HTTP =
+            TypedProperty.with("http", String.class);
+
+        private static final TypedProperty<String> TCP =
+            TypedProperty.with("tcp", String.class);
+
+        private static final TypedProperty<Long> TTL =
+            TypedProperty.with("ttl", Long.class);
+
+        private static final TypedProperty<Long> INTERVAL =
+            TypedProperty.with("interval", Long.class);
+
+        private static final TypedProperty<Long> TIMEOUT =
+            TypedProperty.with("timeout", Long.class);
+
+        public Builder(String name) {
+            property(NAME).set(requireNonNull(name));
+            property(ID).setDefault("");
+            property(HTTP).setDefault("");
+            property(TCP).setDefault("");
+            property(TTL).setDefault(0L);
+            property(INTERVAL).setDefault(0L);
+            property(TIMEOUT).setDefault(0L);
+        }
+
+        public Builder id(String id) {
+            property(ID).set(requireNonNull(id));
+            return this;
+        }
+
+        /**
+         * Checks the service by sending a GET request to the URL every
+         * {@code interval}.
+         */
+        public Builder http(String url, long interval, TimeUnit unit) {
+            property(HTTP).set(requireNonNull(url));
+            property(INTERVAL).set(positive(interval, unit));
+            return this;
+        }
+
+        /**
+         * Checks the service by opening a TCP connection to
+         * {@code host:port} every {@code interval}.
+         */
+        public Builder tcp(String address, long interval, TimeUnit unit) {
+            property(TCP).set(requireNonNull(address));
+            property(INTERVAL).set(positive(interval, unit));
+            return this;
+        }
+
+        /**
+         * The check must be updated using the HTTP API of the agent within
+         * the given time to live, otherwise it becomes critical.
+         */
+        public Builder ttl(long ttl, TimeUnit unit) {
+            property(TTL).set(positive(ttl, unit));
+            return this;
+        }
+
+        public Builder timeout(long timeout, TimeUnit unit) {
+            property(TIMEOUT).set(positive(timeout, unit));
+            return this;
+        }
+
+        @Override
+        public ConsulCheck build() {
+            String http = property(HTTP).get();
+            String tcp = property(TCP).get();
+            long ttl = property(TTL).get();
+            int kinds = (http.isEmpty() ? 0 : 1) + (tcp.isEmpty() ? 0 : 1)
+                + (ttl > 0 ? 1 : 0);
+            if (kinds != 1) {
+                throw new IllegalStateException(
+                    "Exactly one of http, tcp or ttl must be set");
+            }
+            return new ConsulCheck(
+                property(ID).get(),
+                property(NAME).get(),
+                http,
+                tcp,
+                ttl,
+                property(INTERVAL).get(),
+                property(TIMEOUT).get());
+        }
+
+        private static long positive(long duration, TimeUnit unit) {
+            long millis = unit.toMillis(duration);
+            if (millis < 1) {
+                throw new IllegalArgumentException(
+                    "duration must be at least 1 ms: " + duration + " " + unit);
+            }
+            return millis;
+        }
+
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHttp() {
+        return http;
+    }
+
+    public String getTcp() {
+        return tcp;
+    }
+
+    public long getTtl(TimeUnit unit) {
+        return unit.convert(ttl, TimeUnit.MILLISECONDS);
+    }
+
+    public long getInterval(TimeUnit unit) {
+        return unit.convert(interval, TimeUnit.MILLISECONDS);
+    }
+
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    void writeTo(ConsulJsonWriter writer) {
+        writer.beginObject()
+            .optional("id", id)
+            .name("name").value(name)
+            .optional("http", http)
+            .optional("tcp", tcp)
+            .duration("ttl", ttl)
+            .duration("interval", interval)
+            .duration("timeout", timeout)
+            .endObject();
+    }
+
+}
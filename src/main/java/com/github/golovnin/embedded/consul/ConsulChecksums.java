@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper methods to verify downloaded Consul archives against the
+ * {@code SHA256SUMS} files published by HashiCorp.
+ *
+ * <p>The digest of a verified archive is recorded in a file next to the
+ * archive together with the size and the modification time of the
+ * archive. The recorded digest is trusted as long as the size and the
+ * modification time of the archive do not change, so that the archive
+ * does not need to be hashed on every start.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulChecksums {
+
+    private static final String RECORD_SUFFIX = ".sha256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ConsulChecksums() {
+        // NOP
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the digest of the given file from the content of
+     * a {@code SHA256SUMS} file or {@code null}, if the file is not listed.
+     */
+    static String findDigest(String sums, String fileName) {
+        for (String line : sums.split("\n")) {
+            line = line.trim();
+            int separator = line.indexOf(' ');
+            if (separator > 0
+                && line.substring(separator).trim().equals(fileName))
+            {
+                return line.substring(0, separator).toLowerCase();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the recorded digest of the given archive or {@code null},
+     * if there is no record or the archive has been modified since the
+     * digest was recorded.
+     */
+    static String trustedDigest(File archive) {
+        File record = recordFile(archive);
+        if (!record.isFile()) {
+            return null;
+        }
+        try {
+            String[] fields = new String(Files.readAllBytes(record.toPath()),
+                StandardCharsets.US_ASCII).trim().split(" ");
+            if (fields.length == 3
+                && Long.parseLong(fields[1]) == archive.length()
+                && Long.parseLong(fields[2]) == archive.lastModified())
+            {
+                return fields[0];
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Treat a broken record as missing.
+        }
+        return null;
+    }
+
+    static void record(File archive, String digest) throws IOException {
+        String content = digest + ' ' + archive.length() + ' '
+            + archive.lastModified() + '\n';
+        File record = recordFile(archive);
+        Path temp = Files.createTempFile(record.getParentFile().toPath(),
+            record.getName(), ".tmp");
+        try {
+            Files.write(temp, content.getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp, record.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static void forget(File archive) {
+        recordFile(archive).delete();
+    }
+
+    private static File recordFile(File archive) {
+        return new File(archive.getParentFile(),
+            archive.getName() + RECORD_SUFFIX);
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A minimal HTTP client for an agent started by this library, meant to
+ * seed and inspect its state without a full Consul client library.
+ *
+ * <p>The connections are kept alive by {@link java.net.HttpURLConnection}
+ * between the requests. Bulk writes are sent as transactions of up to
+ * {@value #MAX_TXN_OPERATIONS} operations, the limit of Consul, on up to
+ * {@code parallelism} connections at once.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulClient {
+
+    /**
+     * The maximum number of operations of a transaction accepted by Consul.
+     */
+    public static final int MAX_TXN_OPERATIONS = 64;
+
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    private final ConsulHttp http;
+    private final int parallelism;
+
+    public ConsulClient(ConsulAgentProcess process) {
+        this(process, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism the maximum number of concurrent requests of
+     *      bulk operations. Values above 5 require raising the system
+     *      property {@code http.maxConnections} to keep all connections
+     *      alive.
+     */
+    public ConsulClient(ConsulAgentProcess process, int parallelism) {
+        this(ConsulHttp.of(process.getConfig()), parallelism);
+    }
+
+    ConsulClient(ConsulHttp http, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                "parallelism must be greater than zero: " + parallelism);
+        }
+        this.http = requireNonNull(http, "http may not be null");
+        this.parallelism = parallelism;
+    }
+
+    public void put(String key, String value) throws IOException {
+        http.put(ConsulHttp.kvPath(key), value);
+    }
+
+    /**
+     * Returns the value of the given key or {@code null} if the key does
+     * not exist.
+     */
+    public String get(String key) throws IOException {
+        return http.get(ConsulHttp.kvPath(key) + "?raw");
+    }
+
+    public void delete(String key) throws IOException {
+        http.delete(ConsulHttp.kvPath(key));
+    }
+
+    /**
+     * Deletes all keys starting with the given prefix.
+     */
+    public void deleteAll(String prefix) throws IOException {
+        http.delete(ConsulHttp.kvPath(prefix) + "?recurse");
+    }
+
+    /**
+     * Writes all given entries using transactions of up to
+     * {@value #MAX_TXN_OPERATIONS} operations. Each transaction is atomic,
+     * the entries as a whole are not.
+     */
+    public void putAll(Map<String, String> entries) throws IOException {
+        List<String> bodies = new ArrayList<>(
+            (entries.size() + MAX_TXN_OPERATIONS - 1) / MAX_TXN_OPERATIONS);
+        List<Map.Entry<String, String>> chunk =
+            new ArrayList<>(MAX_TXN_OPERATIONS);
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            chunk.add(entry);
+            if (chunk.size() == MAX_TXN_OPERATIONS) {
+                bodies.add(txn(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            bodies.add(txn(chunk));
+        }
+        execute(bodies, body -> http.put("/v1/txn", body));
+    }
+
+    /**
+     * Returns all entries whose keys start with the given prefix, ordered
+     * by key.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getAll(String prefix) throws IOException {
+        String body = http.get(ConsulHttp.kvPath(prefix) + "?recurse");
+        if (body == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map<String, Object> entry : ConsulJson.parseObjects(body)) {
+            Object value = entry.get("Value");
+            result.put((String) entry.get("Key"), value == null
+                ? ""
+                : new String(Base64.getDecoder().decode((String) value),
+                    StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * Registers the given services of an external node in the catalog.
+     * Services of the node of the agent itself would be removed by the
+     * anti-entropy of the agent. The checks of the services are ignored.
+     */
+    public void register(String node, String address,
+        Collection<ConsulService> services) throws IOException
+    {
+        List<String> bodies = new ArrayList<>(services.size());
+        for (ConsulService service : services) {
+            bodies.add(catalogRegistration(node, address, service));
+        }
+        execute(bodies, body -> http.put("/v1/catalog/register", body));
+    }
+
+    /**
+     * Removes the given service of the node from the catalog.
+     */
+    public void deregister(String node, String serviceId) throws IOException {
+        http.put("/v1/catalog/deregister", "{\"Node\":" + ConsulJson.quote(node)
+            + ",\"ServiceID\":" + ConsulJson.quote(serviceId) + '}');
+    }
+
+    /**
+     * Removes the node and all its services from the catalog.
+     */
+    public void deregister(String node) throws IOException {
+        http.put("/v1/catalog/deregister",
+            "{\"Node\":" + ConsulJson.quote(node) + '}');
+    }
+
+    static String txn(List<Map.Entry<String, String>> entries) {
+        StringBuilder sb = new StringBuilder(entries.size() * 64);
+        sb.append('[');
+        for (Map.Entry<String, String> entry : entries) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append("{\"KV\":{\"Verb\":\"set\",\"Key\":");
+            ConsulJson.appendQuoted(sb, entry.getKey());
+            sb.append(",\"Value\":\"")
+                .append(Base64.getEncoder().encodeToString(
+                    entry.getValue().getBytes(StandardCharsets.UTF_8)))
+                .append("\"}}");
+        }
+        return sb.append(']').toString();
+    }
+
+    static String catalogRegistration(String node, String address,
+        ConsulService service)
+    {
+        StringBuilder sb = new StringBuilder("{\"Node\":");
+        ConsulJson.appendQuoted(sb, node);
+        sb.append(",\"Address\":");
+        ConsulJson.appendQuoted(sb, address);
+        sb.append(",\"Service\":{\"Service\":");
+        ConsulJson.appendQuoted(sb, service.getName());
+        if (!service.getId().isEmpty()) {
+            sb.append(",\"ID\":");
+            ConsulJson.appendQuoted(sb, service.getId());
+        }
+        if (!service.getTags().isEmpty()) {
+            sb.append(",\"Tags\":[");
+            for (int i = 0; i < service.getTags().size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                ConsulJson.appendQuoted(sb, service.getTags().get(i));
+            }
+            sb.append(']');
+        }
+        if (!service.getAddress().isEmpty()) {
+            sb.append(",\"Address\":");
+            ConsulJson.appendQuoted(sb, service.getAddress());
+        }
+        if (service.getPort() > 0) {
+            sb.append(",\"Port\":").append(service.getPort());
+        }
+        return sb.append("}}").toString();
+    }
+
+    /**
+     * Sends the requests on up to {@code parallelism} connections at once.
+     */
+    private void execute(List<String> bodies, Request request)
+        throws IOException
+    {
+        if (bodies.size() <= 1 || parallelism == 1) {
+            for (String body : bodies) {
+                request.send(body);
+            }
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(parallelism, bodies.size());
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            futures[i] = CompletableFuture.runAsync(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < bodies.size()) {
+                    try {
+                        request.send(bodies.get(index));
+                    } catch (IOException e) {
+                        // Let the other workers stop early.
+                        next.set(bodies.size());
+                        throw new CompletionException(e);
+                    }
+                }
+            }, ConsulAgentExecutable.ASYNC_EXECUTOR);
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request {
+
+        void send(String body) throws IOException;
+
+    }
+
+}
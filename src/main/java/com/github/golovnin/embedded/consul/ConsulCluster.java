@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A running cluster of Consul server agents started by
+ * {@link ConsulClusterStarter}.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulCluster implements AutoCloseable {
+
+    private final List<Member> members;
+    private final List<ConsulAgentProcess> processes;
+    private final int[][] reservedPorts;
+    private volatile boolean stopped;
+
+    /**
+     * @param reservedPorts the blocks of ports reserved for the members
+     *                      and released when the cluster is stopped
+     */
+    ConsulCluster(List<Member> members, int[][] reservedPorts) {
+        this.members = new ArrayList<>(members);
+        this.reservedPorts = reservedPorts;
+        List<ConsulAgentProcess> processes = new ArrayList<>(members.size());
+        for (Member member : members) {
+            processes.add(member.process);
+        }
+        this.processes = Collections.unmodifiableList(processes);
+    }
+
+    /**
+     * Returns the processes of all cluster members.
+     */
+    public List<ConsulAgentProcess> getProcesses() {
+        return processes;
+    }
+
+    /**
+     * Returns the process of the current leader or {@code null}, if
+     * the cluster has no leader.
+     */
+    public ConsulAgentProcess getLeader() throws IOException {
+        String leader = null;
+        for (ConsulAgentProcess process : processes) {
+            String body = ConsulHttp.of(process.getConfig())
+                .get("/v1/status/leader");
+            if (body != null) {
+                leader = (String) ConsulJson.parse(body);
+                break;
+            }
+        }
+        if (leader == null || leader.isEmpty()) {
+            return null;
+        }
+        for (ConsulAgentProcess process : processes) {
+            ConsulAgentConfig config = process.getConfig();
+            if (leader.equals(config.getAdvertise() + ":"
+                + config.getServerPort()))
+            {
+                return process;
+            }
+        }
+        return null;
+    }
+
+    int getAliveMemberCount() throws IOException {
+        int alive = Integer.MAX_VALUE;
+        for (ConsulAgentProcess process : processes) {
+            alive = Math.min(alive, countAliveMembers(process.getConfig()));
+        }
+        return alive;
+    }
+
+    /**
+     * Returns the number of alive members seen by the given agent.
+     */
+    static int countAliveMembers(ConsulAgentConfig config) throws IOException {
+        String body = ConsulHttp.of(config).get("/v1/agent/members");
+        int alive = 0;
+        for (Map<String, Object> member : ConsulJson.parseObjects(body)) {
+            Object status = member.get("Status");
+            if (status instanceof Number && ((Number) status).intValue() == 1) {
+                alive++;
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * Stops all cluster members in parallel.
+     */
+    public void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        try {
+            stop(members);
+        } finally {
+            release(reservedPorts);
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    static void stop(List<Member> members) {
+        List<ConsulAgentProcess> processes = new ArrayList<>(members.size());
+        for (Member member : members) {
+            processes.add(member.process);
+        }
+        try {
+            ConsulAgentProcess.stopAll(processes);
+        } finally {
+            for (Member member : members) {
+                if (member.executable != null) {
+                    member.executable.stop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the given blocks of ports reserved by
+     * {@link ConsulPortAllocator}. Missing blocks are ignored.
+     */
+    static void release(int[][] reservedPorts) {
+        for (int[] ports : reservedPorts) {
+            if (ports != null) {
+                ConsulPortAllocator.release(ports[0]);
+            }
+        }
+    }
+
+    static final class Member {
+
+        final ConsulAgentExecutable executable;
+        final ConsulAgentProcess process;
+
+        Member(ConsulAgentExecutable executable, ConsulAgentProcess process) {
+            this.executable = executable;
+            this.process = process;
+        }
+
+        /**
+         * Creates a member which shares the extracted files of another
+         * executable. Stopping the member does not remove the files.
+         */
+        Member(ConsulAgentProcess process) {
+            this(null, process);
+        }
+
+        void stop() {
+            try {
+                process.stop();
+            } finally {
+                if (executable != null) {
+                    executable.stop();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.builder.AbstractBuilder;
+import de.flapdoodle.embed.process.builder.TypedProperty;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Starts a cluster of Consul server agents. All agents are started in
+ * parallel and join each other using {@code -retry-join}. The cluster is
+ * returned as soon as a leader is elected and all members are alive.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulClusterStarter {
+
+    private static final long POLL_DELAY = 50L;
+
+    private static final String ADDRESS = "127.0.0.1";
+
+    private final ConsulAgentStarter starter;
+    private final int servers;
+    private final String datacenter;
+    private final long startupTimeout;
+
+    ConsulClusterStarter(ConsulAgentStarter starter, int servers,
+        String datacenter, long startupTimeout)
+    {
+        this.starter = starter;
+        this.servers = servers;
+        this.datacenter = datacenter;
+        this.startupTimeout = startupTimeout;
+    }
+
+    public static final class Builder extends AbstractBuilder<ConsulClusterStarter> {
+
+        private static final TypedProperty<ConsulAgentStarter> STARTER =
+            TypedProperty.with("starter", ConsulAgentStarter.class);
+
+        private static final TypedProperty<Integer> SERVERS =
+            TypedProperty.with("servers", Integer.class);
+
+        private static final TypedProperty<String> DATACENTER =
+            TypedProperty.with("datacenter", String.class);
+
+        private static final TypedProperty<Long> STARTUP_TIMEOUT =
+            TypedProperty.with("startup-timeout", Long.class);
+
+        public Builder() {
+            property(SERVERS).setDefault(3);
+            property(DATACENTER).setDefault("dc1");
+            property(STARTUP_TIMEOUT).setDefault(60000L);
+        }
+
+        public Builder starter(ConsulAgentStarter starter) {
+            property(STARTER).set(requireNonNull(starter));
+            return this;
+        }
+
+        /**
+         * Sets the number of server agents. The default is 3.
+         */
+        public Builder servers(int servers) {
+            if (servers < 1) {
+                throw new IllegalArgumentException(
+                    "servers must be greater than zero: " + servers);
+            }
+            property(SERVERS).set(servers);
+            return this;
+        }
+
+        public Builder datacenter(String datacenter) {
+            property(DATACENTER).set(requireNonNull(datacenter));
+            return this;
+        }
+
+        /**
+         * Sets the time to wait for the agents to start, to elect
+         * a leader and to see each other as alive members.
+         */
+        public Builder startupTimeout(long startupTimeout, TimeUnit unit) {
+            property(STARTUP_TIMEOUT).set(unit.toMillis(startupTimeout));
+            return this;
+        }
+
+        @Override
+        public ConsulClusterStarter build() {
+            ConsulAgentStarter starter = get(STARTER, null);
+            if (starter == null) {
+                starter = ConsulAgentStarter.getDefaultInstance();
+            }
+            return new ConsulClusterStarter(
+                starter,
+                property(SERVERS).get(),
+                property(DATACENTER).get(),
+                property(STARTUP_TIMEOUT).get());
+        }
+
+    }
+
+    public ConsulCluster start() throws IOException {
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(startupTimeout);
+        // The servers must know the serf ports of each other before they
+        // are started, so the cluster reserves the ports itself.
+        int[][] ports = reservePorts();
+        List<ConsulAgentConfig> configs = createConfigs(ports);
+        ExecutorService executor = Executors.newFixedThreadPool(servers,
+            new ConsulThreadFactory("embedded-consul-cluster"));
+        List<ConsulCluster.Member> members = new ArrayList<>(servers);
+        boolean started = false;
+        try {
+            List<Future<ConsulCluster.Member>> futures =
+                new ArrayList<>(servers);
+            for (ConsulAgentConfig config : configs) {
+                futures.add(executor.submit(() -> startMember(config)));
+            }
+            IOException failure = null;
+            for (Future<ConsulCluster.Member> future : futures) {
+                try {
+                    members.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IOException(
+                            "Could not start Consul cluster", e.getCause());
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            ConsulCluster cluster = new ConsulCluster(members, ports);
+            awaitMembers(cluster, deadline);
+            started = true;
+            return cluster;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ConsulCluster.stop(members);
+            throw new InterruptedIOException(
+                "Interrupted while starting Consul cluster");
+        } catch (IOException | RuntimeException e) {
+            ConsulCluster.stop(members);
+            throw e;
+        } finally {
+            executor.shutdown();
+            if (!started) {
+                ConsulCluster.release(ports);
+            }
+        }
+    }
+
+    private int[][] reservePorts() throws IOException {
+        int[][] ports = new int[servers][];
+        try {
+            InetAddress address = InetAddress.getByName(ADDRESS);
+            for (int i = 0; i < servers; i++) {
+                ports[i] = ConsulPortAllocator.allocate(address);
+            }
+        } catch (IOException | RuntimeException e) {
+            ConsulCluster.release(ports);
+            throw e;
+        }
+        return ports;
+    }
+
+    private List<ConsulAgentConfig> createConfigs(int[][] ports) {
+        List<ConsulAgentConfig.Builder> builders = new ArrayList<>(servers);
+        List<String> addresses = new ArrayList<>(servers);
+        for (int i = 0; i < servers; i++) {
+            ConsulAgentConfig.Builder builder = new ConsulAgentConfig.Builder()
+                .advertise(ADDRESS)
+                .bind(ADDRESS)
+                .httpPort(ports[i][0])
+                .dnsPort(ports[i][1])
+                .serfLANPort(ports[i][2])
+                .serfWANPort(ports[i][3])
+                .serverPort(ports[i][4])
+                .dev(false)
+                .server(true)
+                .bootstrapExpect(servers)
+                .datacenter(datacenter)
+                .node("consul-server-" + i);
+            addresses.add(ADDRESS + ":" + ports[i][2]);
+            builders.add(builder);
+        }
+        List<ConsulAgentConfig> configs = new ArrayList<>(servers);
+        for (int i = 0; i < servers; i++) {
+            List<String> others = new ArrayList<>(addresses);
+            others.remove(i);
+            configs.add(builders.get(i).retryJoin(others).build());
+        }
+        return configs;
+    }
+
+    private ConsulCluster.Member startMember(ConsulAgentConfig config)
+        throws IOException
+    {
+        ConsulAgentExecutable executable = starter.prepare(config);
+        try {
+            return new ConsulCluster.Member(executable, executable.start());
+        } catch (IOException | RuntimeException e) {
+            executable.stop();
+            throw e;
+        }
+    }
+
+    private void awaitMembers(ConsulCluster cluster, long deadline)
+        throws IOException, InterruptedException
+    {
+        IOException lastFailure = null;
+        while (true) {
+            try {
+                if (cluster.getLeader() != null
+                    && cluster.getAliveMemberCount() == servers)
+                {
+                    return;
+                }
+            } catch (IOException e) {
+                lastFailure = e;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                throw new IOException("Consul cluster of " + servers
+                    + " servers was not formed within " + startupTimeout
+                    + " ms", lastFailure);
+            }
+            Thread.sleep(POLL_DELAY);
+        }
+    }
+
+}
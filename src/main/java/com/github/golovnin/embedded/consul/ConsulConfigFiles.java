@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the configuration files of the agents by their content, so that
+ * restarting an agent with an unchanged configuration does not write
+ * the file again. A file is referenced from {@link #acquire(String)} until
+ * {@link #release(String)}. The least recently used files without
+ * references are deleted when the cache is full; all files are deleted
+ * when the JVM exits.
+ *
+ * <p>The files are written to a directory of this JVM in {@code /dev/shm}
+ * if it is available, so that starting an agent does not touch the disk. The
+ * file names contain the SHA-256 digest of the content. Otherwise the
+ * files are created in the default temporary-file directory.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulConfigFiles {
+
+    static final int MAX_FILES = 64;
+
+    private static final File SHARED_MEMORY = new File("/dev/shm");
+
+    static final String PREFIX = "embedded-consul-";
+
+    static final String LOCK_FILE = ".lock";
+
+    private static final Map<String, Entry> FILES =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The locks of the directories of this JVM, which are held until
+     * the JVM exits.
+     */
+    private static final List<FileLock> LOCKS = new ArrayList<>();
+
+    private ConsulConfigFiles() {
+        // NOP
+    }
+
+    /**
+     * Returns a file with the given content. The file is not deleted
+     * before it is released by calling {@link #release(String)} with the
+     * same content.
+     */
+    static File acquire(String json) throws IOException {
+        synchronized (FILES) {
+            Entry entry = FILES.get(json);
+            if (entry != null && entry.file.isFile()) {
+                entry.references++;
+                return entry.file;
+            }
+        }
+        File file = write(json.getBytes(StandardCharsets.UTF_8));
+        synchronized (FILES) {
+            Entry entry = FILES.get(json);
+            if (entry == null) {
+                entry = new Entry(file);
+                FILES.put(json, entry);
+            } else if (!entry.file.isFile()) {
+                entry.file = file;
+            } else if (!entry.file.equals(file)) {
+                file.delete();
+            }
+            entry.references++;
+            trim();
+            return entry.file;
+        }
+    }
+
+    /**
+     * Releases a file returned by {@link #acquire(String)}.
+     */
+    static void release(String json) {
+        synchronized (FILES) {
+            Entry entry = FILES.get(json);
+            if (entry != null && entry.references > 0) {
+                entry.references--;
+            }
+            trim();
+        }
+    }
+
+    static boolean isCached(String json) {
+        synchronized (FILES) {
+            return FILES.containsKey(json);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files without references until
+     * the cache is not full anymore.
+     */
+    private static void trim() {
+        Iterator<Entry> entries = FILES.values().iterator();
+        while (FILES.size() > MAX_FILES && entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.references == 0) {
+                entry.file.delete();
+                entries.remove();
+            }
+        }
+    }
+
+    private static File write(byte[] content) throws IOException {
+        File directory = SharedMemory.DIRECTORY;
+        if (directory != null) {
+            String digest = ConsulChecksums.toHex(
+                ConsulChecksums.newDigest().digest(content));
+            File file = new File(directory, "config-" + digest + ".json");
+            try {
+                if (!file.isFile()) {
+                    File tmp = File.createTempFile("config-", ".tmp", directory);
+                    Files.write(tmp.toPath(), content);
+                    Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                    file.deleteOnExit();
+                }
+                return file;
+            } catch (IOException e) {
+                // Fall back to the temporary-file directory.
+            }
+        }
+        File file = File.createTempFile("embedded-consul-config", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    /**
+     * Creates a directory in the given directory and locks it for the
+     * lifetime of this JVM. The lock file is renamed to {@value #LOCK_FILE}
+     * only after it has been locked, so that the directory is never seen
+     * unlocked by {@link #removeDirectoriesOfDeadJVMs(File)}.
+     */
+    static File createLockedDirectory(File root) throws IOException {
+        File directory =
+            Files.createTempDirectory(root.toPath(), PREFIX).toFile();
+        File tmp = new File(directory, LOCK_FILE + ".tmp");
+        FileChannel channel = FileChannel.open(tmp.toPath(),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.lock();
+            Files.move(tmp.toPath(), new File(directory, LOCK_FILE).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+            synchronized (LOCKS) {
+                LOCKS.add(lock);
+            }
+            return directory;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            tmp.delete();
+            directory.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the directories created in the given directory by JVMs
+     * which are not running anymore, i.e. whose lock file can be locked.
+     * Unlike a PID, the lock works across PID namespaces.
+     */
+    static void removeDirectoriesOfDeadJVMs(File root) {
+        File[] directories = root.listFiles((dir, name) ->
+            name.startsWith(PREFIX)
+                && new File(new File(dir, name), LOCK_FILE).isFile());
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            File lockFile = new File(directory, LOCK_FILE);
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                StandardOpenOption.WRITE))
+            {
+                if (channel.tryLock() == null) {
+                    continue;
+                }
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (!file.equals(lockFile)) {
+                            file.delete();
+                        }
+                    }
+                }
+                lockFile.delete();
+                directory.delete();
+            } catch (IOException | OverlappingFileLockException e) {
+                // Removed concurrently or locked by this JVM.
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        File file;
+        int references;
+
+        Entry(File file) {
+            this.file = file;
+        }
+
+    }
+
+    /**
+     * The directory of this JVM in {@code /dev/shm} or {@code null}, if
+     * it is not available. Created on first use.
+     *
+     * <p>The directory is locked as long as the JVM is running. Directories
+     * of JVMs which are not running anymore, e.g. because they have been
+     * killed, are removed when the directory is created.
+     */
+    private static final class SharedMemory {
+
+        static final File DIRECTORY = create();
+
+        private static File create() {
+            if (!SHARED_MEMORY.isDirectory() || !SHARED_MEMORY.canWrite()) {
+                return null;
+            }
+            removeDirectoriesOfDeadJVMs(SHARED_MEMORY);
+            File directory;
+            try {
+                directory = createLockedDirectory(SHARED_MEMORY);
+            } catch (IOException e) {
+                return null;
+            }
+            // Deleted in the reverse order of registration.
+            directory.deleteOnExit();
+            new File(directory, LOCK_FILE).deleteOnExit();
+            return directory;
+        }
+
+    }
+
+}
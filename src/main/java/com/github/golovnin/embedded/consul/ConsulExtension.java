@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A JUnit 5 extension which injects a {@link ConsulNamespace} or the
+ * {@link ConsulAgentProcess} into the test methods:
+ * <pre>
+ * &#64;ExtendWith(ConsulExtension.class)
+ * class MyTest {
+ *
+ *     &#64;Test
+ *     void test(ConsulNamespace consul) throws IOException {
+ *         consul.put("key", "value");
+ *     }
+ *
+ * }
+ * </pre>
+ * The agent is shared by all tests using an equivalent configuration,
+ * see {@link ConsulSharedAgents}. Every test gets its own namespace,
+ * which is cleared when the test has finished, so that the tests may
+ * run in parallel. Parameters of {@code @BeforeAll} methods get a
+ * namespace shared by all tests of the class.
+ *
+ * <p>To use another configuration, register the extension with
+ * {@code @RegisterExtension} in a static field.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulExtension implements ParameterResolver {
+
+    private static final ExtensionContext.Namespace STORE =
+        ExtensionContext.Namespace.create(ConsulExtension.class);
+
+    private final ConsulAgentStarter starter;
+    private final ConsulAgentConfig config;
+
+    /**
+     * Creates an extension starting the agent on random ports using the
+     * default {@link ConsulAgentStarter}.
+     */
+    public ConsulExtension() {
+        this.starter = ConsulAgentStarter.getDefaultInstance();
+        this.config = null;
+    }
+
+    public ConsulExtension(ConsulAgentConfig config) {
+        this(ConsulAgentStarter.getDefaultInstance(), config);
+    }
+
+    public ConsulExtension(ConsulAgentStarter starter,
+        ConsulAgentConfig config)
+    {
+        this.starter = requireNonNull(starter, "starter may not be null");
+        this.config = requireNonNull(config, "config may not be null");
+    }
+
+    private ConsulAgentConfig config() {
+        return config != null
+            ? config
+            : new ConsulAgentConfig.Builder().randomPorts().build();
+    }
+
+    @Override
+    public boolean supportsParameter(ParameterContext parameterContext,
+        ExtensionContext extensionContext)
+    {
+        Class<?> type = parameterContext.getParameter().getType();
+        return type == ConsulNamespace.class || type == ConsulAgentProcess.class;
+    }
+
+    @Override
+    public Object resolveParameter(ParameterContext parameterContext,
+        ExtensionContext extensionContext)
+    {
+        // Lookups in a store fall back to the stores of the enclosing
+        // contexts, so the lease is keyed by the context to prevent a test
+        // from getting the namespace created for @BeforeAll methods.
+        ConsulNamespace namespace = extensionContext.getStore(STORE)
+            .getOrComputeIfAbsent(extensionContext.getUniqueId(),
+                key -> new Lease(starter, config()), Lease.class)
+            .namespace;
+        return parameterContext.getParameter().getType() == ConsulNamespace.class
+            ? namespace
+            : namespace.getProcess();
+    }
+
+    private static final class Lease
+        implements ExtensionContext.Store.CloseableResource
+    {
+
+        final ConsulNamespace namespace;
+
+        Lease(ConsulAgentStarter starter, ConsulAgentConfig config) {
+            try {
+                this.namespace = new ConsulNamespace(
+                    ConsulSharedAgents.acquire(starter, config));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                namespace.clear();
+            } finally {
+                ConsulSharedAgents.release(namespace.getProcess());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A running fleet of Consul agents started by {@link ConsulFleetStarter}.
+ *
+ * <p>The resource usage is read from {@code /proc} and is therefore only
+ * available on Linux.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulFleet implements AutoCloseable {
+
+    private static final long CLOCK_TICKS_PER_SECOND = 100L;
+
+    private static final boolean PROC_AVAILABLE =
+        Files.isDirectory(Paths.get("/proc/self"));
+
+    private final ConsulCluster.Member server;
+    private final List<ConsulCluster.Member> members;
+    private final List<ConsulAgentProcess> clients;
+    private final long timeToJoined;
+    private volatile boolean stopped;
+
+    ConsulFleet(ConsulCluster.Member server, List<ConsulCluster.Member> members,
+        long timeToJoined)
+    {
+        this.server = server;
+        this.members = new ArrayList<>(members);
+        List<ConsulAgentProcess> clients = new ArrayList<>(members.size());
+        for (ConsulCluster.Member member : members) {
+            clients.add(member.process);
+        }
+        this.clients = Collections.unmodifiableList(clients);
+        this.timeToJoined = timeToJoined;
+    }
+
+    public ConsulAgentProcess getServer() {
+        return server.process;
+    }
+
+    public List<ConsulAgentProcess> getClients() {
+        return clients;
+    }
+
+    /**
+     * Returns the time between the start of the fleet and the moment
+     * when the server has seen all agents as alive members.
+     */
+    public long getTimeToJoined(TimeUnit unit) {
+        return unit.convert(timeToJoined, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the sum of the resident set sizes of all agents in bytes
+     * or {@code -1}, if it cannot be determined.
+     */
+    public long getResidentSetSize() {
+        if (!PROC_AVAILABLE) {
+            return -1;
+        }
+        long total = 0;
+        for (ConsulAgentProcess process : allProcesses()) {
+            long rss = residentSetSize(process.getProcessId());
+            if (rss < 0) {
+                return -1;
+            }
+            total += rss;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the sum of the user and system CPU time consumed by all
+     * agents or {@code -1}, if it cannot be determined.
+     */
+    public long getCpuTime(TimeUnit unit) {
+        if (!PROC_AVAILABLE) {
+            return -1;
+        }
+        long ticks = 0;
+        for (ConsulAgentProcess process : allProcesses()) {
+            long cpu = cpuTicks(process.getProcessId());
+            if (cpu < 0) {
+                return -1;
+            }
+            ticks += cpu;
+        }
+        return unit.convert(ticks * 1000L / CLOCK_TICKS_PER_SECOND,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops all client agents in parallel and then the server agent.
+     */
+    public void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        try {
+            ConsulCluster.stop(members);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private List<ConsulAgentProcess> allProcesses() {
+        List<ConsulAgentProcess> processes = new ArrayList<>(clients.size() + 1);
+        processes.add(server.process);
+        processes.addAll(clients);
+        return processes;
+    }
+
+    private static long residentSetSize(long pid) {
+        try {
+            for (String line : Files.readAllLines(
+                Paths.get("/proc", String.valueOf(pid), "status"),
+                StandardCharsets.US_ASCII))
+            {
+                if (line.startsWith("VmRSS:")) {
+                    String value = line.substring(6).trim();
+                    int end = value.indexOf(' ');
+                    return Long.parseLong(
+                        end < 0 ? value : value.substring(0, end)) * 1024L;
+                }
+            }
+            return 0;
+        } catch (NoSuchFileException e) {
+            // The process is gone
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static long cpuTicks(long pid) {
+        try {
+            String stat = new String(Files.readAllBytes(
+                Paths.get("/proc", String.valueOf(pid), "stat")),
+                StandardCharsets.US_ASCII);
+            // The fields after the command name, starting with the state.
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2)
+                .split(" ");
+            return Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+        } catch (NoSuchFileException e) {
+            // The process is gone
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.builder.AbstractBuilder;
+import de.flapdoodle.embed.process.builder.TypedProperty;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Starts a fleet of Consul agents which consists of one server agent and
+ * many lightweight client agents joined to it. The fleet is meant to
+ * simulate a large number of nodes on a single machine.
+ *
+ * <p>All client agents use the binary extracted for the server agent.
+ * The client agents are started in batches. Every client agent runs with
+ * {@code GOMAXPROCS=1}, with the DNS interface disabled and logs warnings
+ * only.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulFleetStarter {
+
+    private static final long POLL_DELAY = 100L;
+
+    private final ConsulAgentStarter starter;
+    private final int clients;
+    private final int batchSize;
+    private final long batchDelay;
+    private final long startupTimeout;
+
+    ConsulFleetStarter(ConsulAgentStarter starter, int clients, int batchSize,
+        long batchDelay, long startupTimeout)
+    {
+        this.starter = starter;
+        this.clients = clients;
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+        this.startupTimeout = startupTimeout;
+    }
+
+    public static final class Builder extends AbstractBuilder<ConsulFleetStarter> {
+
+        private static final TypedProperty<ConsulAgentStarter> STARTER =
+            TypedProperty.with("starter", ConsulAgentStarter.class);
+
+        private static final TypedProperty<Integer> CLIENTS =
+            TypedProperty.with("clients", Integer.class);
+
+        private static final TypedProperty<Integer> BATCH_SIZE =
+            TypedProperty.with("batch-size", Integer.class);
+
+        private static final TypedProperty<Long> BATCH_DELAY =
+            TypedProperty.with("batch-delay", Long.class);
+
+        private static final TypedProperty<Long> STARTUP_TIMEOUT =
+            TypedProperty.with("startup-timeout", Long.class);
+
+        public Builder() {
+            property(CLIENTS).setDefault(10);
+            property(BATCH_SIZE).setDefault(10);
+            property(BATCH_DELAY).setDefault(0L);
+            property(STARTUP_TIMEOUT).setDefault(300000L);
+        }
+
+        public Builder starter(ConsulAgentStarter starter) {
+            property(STARTER).set(requireNonNull(starter));
+            return this;
+        }
+
+        /**
+         * Sets the number of client agents. The default is 10.
+         */
+        public Builder clients(int clients) {
+            if (clients < 0) {
+                throw new IllegalArgumentException(
+                    "clients must not be negative: " + clients);
+            }
+            property(CLIENTS).set(clients);
+            return this;
+        }
+
+        /**
+         * Sets the number of client agents started in parallel.
+         * The default is 10.
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException(
+                    "batchSize must be greater than zero: " + batchSize);
+            }
+            property(BATCH_SIZE).set(batchSize);
+            return this;
+        }
+
+        /**
+         * Sets the delay between two batches of client agents.
+         */
+        public Builder batchDelay(long batchDelay, TimeUnit unit) {
+            property(BATCH_DELAY).set(unit.toMillis(batchDelay));
+            return this;
+        }
+
+        /**
+         * Sets the time to wait until all agents are started and joined.
+         */
+        public Builder startupTimeout(long startupTimeout, TimeUnit unit) {
+            property(STARTUP_TIMEOUT).set(unit.toMillis(startupTimeout));
+            return this;
+        }
+
+        @Override
+        public ConsulFleetStarter build() {
+            ConsulAgentStarter starter = get(STARTER, null);
+            if (starter == null) {
+                starter = ConsulAgentStarter.getDefaultInstance();
+            }
+            return new ConsulFleetStarter(
+                starter,
+                property(CLIENTS).get(),
+                property(BATCH_SIZE).get(),
+                property(BATCH_DELAY).get(),
+                property(STARTUP_TIMEOUT).get());
+        }
+
+    }
+
+    public ConsulFleet start() throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(startupTimeout);
+        ConsulAgentConfig serverConfig = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .node("consul-fleet-server")
+            .readiness(ConsulReadiness.LEADER_ELECTED)
+            .build();
+        ConsulAgentExecutable executable = starter.prepare(serverConfig);
+        ConsulCluster.Member server;
+        try {
+            server = new ConsulCluster.Member(executable, executable.start());
+        } catch (IOException | RuntimeException e) {
+            executable.stop();
+            throw e;
+        }
+        ConsulAgentConfig actual = server.process.getConfig();
+        String join = actual.getBind() + ":" + actual.getSerfLANPort();
+        List<ConsulCluster.Member> members = new ArrayList<>(clients);
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(batchSize, Math.max(clients, 1)),
+            new ConsulThreadFactory("embedded-consul-fleet"));
+        try {
+            for (int i = 0; i < clients; i += batchSize) {
+                if (i > 0 && batchDelay > 0) {
+                    Thread.sleep(batchDelay);
+                }
+                startBatch(executor, executable, join, i,
+                    Math.min(i + batchSize, clients), members);
+            }
+            awaitMembers(server.process, deadline);
+            return new ConsulFleet(server, members, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop(server, members);
+            throw new InterruptedIOException(
+                "Interrupted while starting Consul fleet");
+        } catch (IOException | RuntimeException e) {
+            stop(server, members);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void startBatch(ExecutorService executor,
+        ConsulAgentExecutable executable, String join, int from, int to,
+        List<ConsulCluster.Member> members)
+        throws IOException, InterruptedException
+    {
+        List<Future<ConsulAgentProcess>> futures = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            ConsulAgentConfig config = createClientConfig(i, join);
+            futures.add(executor.submit(() -> executable.startShared(config)));
+        }
+        IOException failure = null;
+        for (Future<ConsulAgentProcess> future : futures) {
+            try {
+                members.add(new ConsulCluster.Member(future.get()));
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IOException(
+                        "Could not start Consul client agent", e.getCause());
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static ConsulAgentConfig createClientConfig(int index,
+        String join)
+    {
+        return new ConsulAgentConfig.Builder()
+            .reservePorts("127.0.0.1", false)
+            .dev(false)
+            .server(false)
+            .retryJoin(Collections.singletonList(join))
+            .node("consul-fleet-client-" + index)
+            .logLevel(ConsulLogLevel.WARN)
+            .environment(Collections.singletonMap("GOMAXPROCS", "1"))
+            .build();
+    }
+
+    private void awaitMembers(ConsulAgentProcess server, long deadline)
+        throws IOException, InterruptedException
+    {
+        int expected = clients + 1;
+        while (true) {
+            int alive = ConsulCluster.countAliveMembers(server.getConfig());
+            if (alive >= expected) {
+                return;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                throw new IOException("Only " + alive + " of " + expected
+                    + " Consul agents joined within " + startupTimeout
+                    + " ms");
+            }
+            Thread.sleep(POLL_DELAY);
+        }
+    }
+
+    private static void stop(ConsulCluster.Member server,
+        List<ConsulCluster.Member> members)
+    {
+        try {
+            ConsulCluster.stop(members);
+        } finally {
+            server.stop();
+        }
+    }
+
+}
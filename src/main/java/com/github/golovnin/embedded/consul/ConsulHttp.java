@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A tiny HTTP client for the local Consul agent based on
+ * {@link HttpURLConnection}. The JDK keeps the connections alive as long
+ * as the responses are read completely.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulHttp {
+
+    private static final int TIMEOUT = 10000;
+
+    private final String baseUrl;
+    private final String token;
+
+    ConsulHttp(String host, int port) {
+        this(host, port, "");
+    }
+
+    /**
+     * @param token the ACL token sent with every request or an empty
+     *              string to send no token at all
+     */
+    ConsulHttp(String host, int port, String token) {
+        if ("0.0.0.0".equals(host)) {
+            host = "127.0.0.1";
+        }
+        this.baseUrl = "http://" + host + ':' + port;
+        this.token = token;
+    }
+
+    static ConsulHttp of(ConsulAgentConfig config) {
+        return new ConsulHttp(config.getClient(), config.getHttpPort(),
+            config.getAclMasterToken());
+    }
+
+    static String encode(String pathSegment) {
+        try {
+            return URLEncoder.encode(pathSegment, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns the path of the given key in the KV store. The segments of
+     * the key are encoded separately.
+     */
+    static String kvPath(String key) {
+        StringBuilder path = new StringBuilder("/v1/kv/");
+        int start = 0;
+        int slash;
+        while ((slash = key.indexOf('/', start)) >= 0) {
+            path.append(encode(key.substring(start, slash))).append('/');
+            start = slash + 1;
+        }
+        return path.append(encode(key.substring(start))).toString();
+    }
+
+    /**
+     * Returns the body of the response or {@code null} if the requested
+     * resource does not exist.
+     */
+    String get(String path) throws IOException {
+        return execute("GET", path, null);
+    }
+
+    String put(String path, String body) throws IOException {
+        return execute("PUT", path, body);
+    }
+
+    String delete(String path) throws IOException {
+        return execute("DELETE", path, null);
+    }
+
+    private String execute(String method, String path, String body)
+        throws IOException
+    {
+        HttpURLConnection connection =
+            (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setUseCaches(false);
+        if (!token.isEmpty()) {
+            connection.setRequestProperty("X-Consul-Token", token);
+        }
+        if (body != null) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(bytes.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(bytes);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400
+            ? connection.getErrorStream()
+            : connection.getInputStream();
+        String response = read(in);
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+            return null;
+        }
+        if (status >= 400) {
+            throw new IOException(method + ' ' + path + " failed with HTTP "
+                + status + ": " + response);
+        }
+        return response;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A minimal streaming JSON writer for the configuration files of Consul.
+ * Commas and indentation are inserted automatically.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulJsonWriter {
+
+    private final StringBuilder sb;
+    private final BitSet hasElements = new BitSet();
+    private int depth;
+    private boolean afterName;
+
+    ConsulJsonWriter(StringBuilder sb) {
+        this.sb = sb;
+    }
+
+    ConsulJsonWriter beginObject() {
+        beforeValue();
+        sb.append('{');
+        depth++;
+        hasElements.clear(depth);
+        return this;
+    }
+
+    ConsulJsonWriter endObject() {
+        return end('}');
+    }
+
+    ConsulJsonWriter beginArray() {
+        beforeValue();
+        sb.append('[');
+        depth++;
+        hasElements.clear(depth);
+        return this;
+    }
+
+    ConsulJsonWriter endArray() {
+        return end(']');
+    }
+
+    ConsulJsonWriter name(String name) {
+        beforeValue();
+        ConsulJson.appendQuoted(sb, name);
+        sb.append(": ");
+        afterName = true;
+        return this;
+    }
+
+    ConsulJsonWriter value(String value) {
+        beforeValue();
+        ConsulJson.appendQuoted(sb, value);
+        return this;
+    }
+
+    ConsulJsonWriter value(long value) {
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    ConsulJsonWriter value(double value) {
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    ConsulJsonWriter value(boolean value) {
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    ConsulJsonWriter value(List<String> values) {
+        beginArray();
+        for (String value : values) {
+            value(value);
+        }
+        return endArray();
+    }
+
+    /**
+     * Writes the name and the value, unless the value is {@code null}
+     * or empty.
+     */
+    ConsulJsonWriter optional(String name, String value) {
+        if (value != null && !value.isEmpty()) {
+            name(name).value(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the name and the duration in the format of Go, unless the
+     * duration is not positive.
+     */
+    ConsulJsonWriter duration(String name, long millis) {
+        if (millis > 0) {
+            name(name).value(millis + "ms");
+        }
+        return this;
+    }
+
+    private ConsulJsonWriter end(char c) {
+        boolean empty = !hasElements.get(depth);
+        depth--;
+        if (!empty) {
+            newLine();
+        }
+        sb.append(c);
+        if (depth == 0) {
+            sb.append('\n');
+        }
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElements.get(depth)) {
+                sb.append(',');
+            }
+            hasElements.set(depth);
+            newLine();
+        }
+    }
+
+    private void newLine() {
+        sb.append('\n');
+        for (int i = 0; i < depth; i++) {
+            sb.append('\t');
+        }
+    }
+
+}
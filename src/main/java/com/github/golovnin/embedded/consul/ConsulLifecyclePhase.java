@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+/**
+ * The phases reported to a {@link ConsulLifecycleListener}.
+ *
+ * @author Andrej Golovnin
+ */
+public enum ConsulLifecyclePhase {
+
+    /**
+     * Preparing the executable, including {@link #DOWNLOAD},
+     * {@link #VERIFY} and {@link #EXTRACT} if they are required.
+     */
+    RESOLVE,
+
+    /**
+     * Downloading the Consul archive. Reported only on a cache miss.
+     */
+    DOWNLOAD,
+
+    /**
+     * Hashing a cached Consul archive. Reported only if the archive has
+     * no trusted digest yet.
+     */
+    VERIFY,
+
+    /**
+     * Extracting the Consul binary. Reported only if the binary has not
+     * been extracted yet.
+     */
+    EXTRACT,
+
+    /**
+     * Writing the configuration file of the agent.
+     */
+    CONFIG_WRITE,
+
+    /**
+     * Spawning the agent process.
+     */
+    SPAWN,
+
+    /**
+     * From spawning the agent process until its first output line.
+     */
+    FIRST_OUTPUT,
+
+    /**
+     * From the first output line until the agent is ready according to
+     * its {@link ConsulReadinessProbe}.
+     */
+    READY,
+
+    /**
+     * Loading the KV entries of the {@link ConsulSeed} into the ready
+     * agent. Reported only if the seed has entries.
+     */
+    SEED,
+
+    /**
+     * Stopping the agent process.
+     */
+    STOP
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A {@link ConsulLifecycleListener} which aggregates the durations of
+ * every phase. The percentiles are computed over the last
+ * {@code capacity} samples of a phase; the count, the minimum and the
+ * maximum cover all samples.
+ *
+ * <p>Recording a sample does not allocate any memory.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulLifecycleStatistics implements ConsulLifecycleListener {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<ConsulLifecyclePhase, PhaseSamples> samples;
+
+    public ConsulLifecycleStatistics() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ConsulLifecycleStatistics(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                "capacity must be greater than zero: " + capacity);
+        }
+        this.samples = new EnumMap<>(ConsulLifecyclePhase.class);
+        for (ConsulLifecyclePhase phase : ConsulLifecyclePhase.values()) {
+            samples.put(phase, new PhaseSamples(capacity));
+        }
+    }
+
+    @Override
+    public void onPhase(ConsulLifecyclePhase phase, long nanos) {
+        samples.get(phase).add(nanos);
+    }
+
+    public Summary getSummary(ConsulLifecyclePhase phase) {
+        return samples.get(phase).summary(phase);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (ConsulLifecyclePhase phase : ConsulLifecyclePhase.values()) {
+            Summary summary = getSummary(phase);
+            if (summary.getCount() > 0) {
+                sb.append(summary).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A snapshot of the durations of a phase. All times are in
+     * nanoseconds.
+     */
+    public static final class Summary {
+
+        private final ConsulLifecyclePhase phase;
+        private final long count;
+        private final long min;
+        private final long p50;
+        private final long p99;
+        private final long max;
+
+        Summary(ConsulLifecyclePhase phase, long count, long min, long p50,
+            long p99, long max)
+        {
+            this.phase = phase;
+            this.count = count;
+            this.min = min;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public ConsulLifecyclePhase getPhase() {
+            return phase;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return phase + "[count=" + count
+                + ", min=" + min / 1000 + "us"
+                + ", p50=" + p50 / 1000 + "us"
+                + ", p99=" + p99 / 1000 + "us"
+                + ", max=" + max / 1000 + "us]";
+        }
+
+    }
+
+    private static final class PhaseSamples {
+
+        private final long[] ring;
+        private long count;
+        private long min;
+        private long max;
+
+        PhaseSamples(int capacity) {
+            this.ring = new long[capacity];
+            this.min = Long.MAX_VALUE;
+            this.max = Long.MIN_VALUE;
+        }
+
+        synchronized void add(long nanos) {
+            ring[(int) (count % ring.length)] = nanos;
+            count++;
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+        }
+
+        synchronized Summary summary(ConsulLifecyclePhase phase) {
+            if (count == 0) {
+                return new Summary(phase, 0, 0, 0, 0, 0);
+            }
+            long[] sorted = Arrays.copyOf(ring,
+                (int) Math.min(count, ring.length));
+            Arrays.sort(sorted);
+            return new Summary(phase, count, min,
+                percentile(sorted, 50), percentile(sorted, 99), max);
+        }
+
+        private static long percentile(long[] sorted, int percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A log message of a Consul agent.
+ *
+ * @author Andrej Golovnin
+ * @see ConsulLogListener
+ */
+public final class ConsulLogEvent {
+
+    private final String timestamp;
+    private final ConsulLogLevel level;
+    private final String module;
+    private final String message;
+    private final Map<String, String> fields;
+
+    ConsulLogEvent(String timestamp, ConsulLogLevel level, String module,
+        String message, Map<String, String> fields)
+    {
+        this.timestamp = requireNonNull(timestamp, "timestamp may not be null");
+        this.level = requireNonNull(level, "level may not be null");
+        this.module = requireNonNull(module, "module may not be null");
+        this.message = requireNonNull(message, "message may not be null");
+        this.fields = requireNonNull(fields, "fields may not be null");
+    }
+
+    /**
+     * Returns the timestamp as printed by the agent, e.g.
+     * {@code 2018/09/17 12:00:00} for the text format or
+     * {@code 2020-01-27T12:00:00.000000+01:00} for the JSON format.
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public ConsulLogLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the name of the subsystem which logged the message, e.g.
+     * {@code agent}, {@code raft} or {@code memberlist}, or an empty string
+     * if the message has none.
+     */
+    public String getModule() {
+        return module;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the additional key/value pairs of the message. Only messages
+     * in the JSON format have fields.
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + " [" + level + "] " + module + ": " + message
+            + (fields.isEmpty() ? "" : " " + fields);
+    }
+
+}
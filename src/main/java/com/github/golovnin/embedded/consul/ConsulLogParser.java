@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Parses the log lines of a Consul agent into {@link ConsulLogEvent}s.
+ *
+ * <p>Both the text format ({@code 2018/09/17 12:00:00 [INFO] agent: ...})
+ * and the JSON format of {@code -log-json} are recognized. The level and
+ * the module are located by scanning the line in place, so lines which do
+ * not pass the filter are discarded without any allocation. Lines which
+ * are not log messages, e.g. the {@code ==>} banners, are ignored.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulLogParser implements Consumer<String> {
+
+    private static final ConsulLogLevel[] LEVELS = ConsulLogLevel.values();
+
+    private final ConsulLogListener listener;
+    private final ConsulLogLevel minLevel;
+    private final String[] modules;
+
+    /**
+     * @param modules the modules to report, a module also matches its
+     *        submodules, e.g. {@code agent} matches {@code agent.server};
+     *        an empty array matches all modules
+     */
+    ConsulLogParser(ConsulLogListener listener, ConsulLogLevel minLevel,
+        String... modules)
+    {
+        this.listener = requireNonNull(listener, "listener may not be null");
+        this.minLevel = requireNonNull(minLevel, "minLevel may not be null");
+        this.modules = modules.clone();
+    }
+
+    @Override
+    public void accept(String line) {
+        int end = line.length();
+        while (end > 0 && isLineBreak(line.charAt(end - 1))) {
+            end--;
+        }
+        int start = skipWhitespace(line, 0, end);
+        if (start == end) {
+            return;
+        }
+        char first = line.charAt(start);
+        if (first == '{') {
+            parseJson(line, start, end);
+        } else if (first >= '0' && first <= '9') {
+            parseText(line, start, end);
+        }
+    }
+
+    private void parseText(String line, int start, int end) {
+        int open = line.indexOf('[', start);
+        if (open < 0 || open >= end) {
+            return;
+        }
+        int close = line.indexOf(']', open);
+        if (close < 0 || close >= end) {
+            return;
+        }
+        ConsulLogLevel level = level(line, open + 1, close);
+        if (level == null || level.compareTo(minLevel) < 0) {
+            return;
+        }
+        int moduleStart = skipWhitespace(line, close + 1, end);
+        int moduleEnd = moduleStart;
+        while (moduleEnd < end && isModuleChar(line.charAt(moduleEnd))) {
+            moduleEnd++;
+        }
+        int messageStart;
+        if (moduleEnd > moduleStart && moduleEnd + 1 < end
+            && line.charAt(moduleEnd) == ':' && line.charAt(moduleEnd + 1) == ' ')
+        {
+            messageStart = moduleEnd + 2;
+        } else {
+            moduleEnd = moduleStart;
+            messageStart = moduleStart;
+        }
+        if (!acceptModule(line, moduleStart, moduleEnd)) {
+            return;
+        }
+        listener.onEvent(new ConsulLogEvent(
+            line.substring(start, skipWhitespaceBackwards(line, start, open)),
+            level,
+            line.substring(moduleStart, moduleEnd),
+            line.substring(messageStart, end),
+            Collections.emptyMap()));
+    }
+
+    private void parseJson(String line, int start, int end) {
+        int levelStart = -1;
+        int levelEnd = -1;
+        int moduleStart = 0;
+        int moduleEnd = 0;
+        int pos = skipWhitespace(line, start + 1, end);
+        while (pos < end && line.charAt(pos) != '}') {
+            if (line.charAt(pos) != '"') {
+                return;
+            }
+            int keyStart = pos;
+            int keyEnd = endOfString(line, keyStart, end);
+            if (keyEnd < 0) {
+                return;
+            }
+            pos = skipWhitespace(line, keyEnd + 1, end);
+            if (pos == end || line.charAt(pos) != ':') {
+                return;
+            }
+            int valueStart = skipWhitespace(line, pos + 1, end);
+            int valueEnd = skipValue(line, valueStart, end);
+            if (valueEnd < 0) {
+                return;
+            }
+            if (line.charAt(valueStart) == '"') {
+                if (isKey(line, keyStart, keyEnd, "@level")) {
+                    levelStart = valueStart + 1;
+                    levelEnd = valueEnd - 1;
+                } else if (isKey(line, keyStart, keyEnd, "@module")) {
+                    moduleStart = valueStart + 1;
+                    moduleEnd = valueEnd - 1;
+                }
+            }
+            pos = skipWhitespace(line, valueEnd, end);
+            if (pos < end && line.charAt(pos) == ',') {
+                pos = skipWhitespace(line, pos + 1, end);
+            }
+        }
+        if (levelStart < 0) {
+            return;
+        }
+        ConsulLogLevel level = level(line, levelStart, levelEnd);
+        if (level == null || level.compareTo(minLevel) < 0
+            || !acceptModule(line, moduleStart, moduleEnd))
+        {
+            return;
+        }
+
+        Map<String, Object> json;
+        try {
+            json = ConsulJson.parseObject(line.substring(start, end));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : json.entrySet()) {
+            if (!entry.getKey().startsWith("@")) {
+                fields.put(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+        }
+        listener.onEvent(new ConsulLogEvent(
+            stringOf(json.get("@timestamp")),
+            level,
+            stringOf(json.get("@module")),
+            stringOf(json.get("@message")),
+            fields.isEmpty()
+                ? Collections.emptyMap()
+                : Collections.unmodifiableMap(fields)));
+    }
+
+    private boolean acceptModule(String line, int start, int end) {
+        if (modules.length == 0) {
+            return true;
+        }
+        int length = end - start;
+        for (String module : modules) {
+            int moduleLength = module.length();
+            if (length == moduleLength
+                || length > moduleLength && line.charAt(start + moduleLength) == '.')
+            {
+                if (line.regionMatches(start, module, 0, moduleLength)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Maps the level names of the text format ({@code ERR}, {@code WARN})
+     * as well as of the JSON format ({@code error}, {@code warn}).
+     */
+    private static ConsulLogLevel level(String line, int start, int end) {
+        int length = end - start;
+        for (ConsulLogLevel level : LEVELS) {
+            String name = level.name();
+            if (length >= name.length()
+                && line.regionMatches(true, start, name, 0, name.length()))
+            {
+                return level;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isKey(String line, int quote, int keyEnd, String key) {
+        int keyStart = quote + 1;
+        return keyEnd - keyStart == key.length()
+            && line.regionMatches(keyStart, key, 0, key.length());
+    }
+
+    /**
+     * Returns the position of the closing quote of the string starting
+     * at {@code quote} or {@code -1}, if the string is not terminated.
+     */
+    private static int endOfString(String line, int quote, int end) {
+        int pos = quote + 1;
+        while (pos < end) {
+            char c = line.charAt(pos);
+            if (c == '\\') {
+                pos += 2;
+            } else if (c == '"') {
+                return pos;
+            } else {
+                pos++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position after the JSON value starting at {@code pos}
+     * or {@code -1}, if the value is malformed.
+     */
+    private static int skipValue(String line, int pos, int end) {
+        if (pos >= end) {
+            return -1;
+        }
+        char c = line.charAt(pos);
+        if (c == '"') {
+            int close = endOfString(line, pos, end);
+            return close < 0 ? -1 : close + 1;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (pos < end) {
+                c = line.charAt(pos);
+                if (c == '"') {
+                    pos = endOfString(line, pos, end);
+                    if (pos < 0) {
+                        return -1;
+                    }
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return pos + 1;
+                    }
+                }
+                pos++;
+            }
+            return -1;
+        }
+        int start = pos;
+        while (pos < end) {
+            c = line.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            pos++;
+        }
+        return pos > start ? pos : -1;
+    }
+
+    private static String stringOf(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    private static boolean isModuleChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+            || c >= '0' && c <= '9' || c == '.' || c == '_' || c == '-';
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static int skipWhitespace(String line, int pos, int end) {
+        while (pos < end && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipWhitespaceBackwards(String line, int start, int pos) {
+        while (pos > start && Character.isWhitespace(line.charAt(pos - 1))) {
+            pos--;
+        }
+        return pos;
+    }
+
+}
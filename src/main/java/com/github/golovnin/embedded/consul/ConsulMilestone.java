@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+/**
+ * The milestones recorded in a {@link ConsulTimeline}.
+ *
+ * @author Andrej Golovnin
+ */
+public enum ConsulMilestone {
+
+    /**
+     * The agent has logged "Consul agent running!".
+     */
+    RUNNING("Consul agent running!"),
+
+    /**
+     * A Raft leader has been elected.
+     */
+    LEADER_ELECTED("New leader elected", "cluster leadership acquired"),
+
+    /**
+     * The leader has marked the first member as alive in the catalog.
+     */
+    MEMBER_ALIVE("marking health alive"),
+
+    /**
+     * The anti-entropy sync has registered the node of the agent in the
+     * catalog.
+     */
+    SYNCED("Synced node info"),
+
+    /**
+     * The configured {@link ConsulReadinessProbe} has reported the agent
+     * as ready.
+     */
+    READY;
+
+    private final String[] messages;
+
+    ConsulMilestone(String... messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * Returns {@code true}, if the milestone is detected in the output.
+     */
+    boolean isLogged() {
+        return messages.length > 0;
+    }
+
+    boolean matches(String line) {
+        for (String message : messages) {
+            if (line.contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
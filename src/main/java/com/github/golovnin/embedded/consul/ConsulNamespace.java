@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A handle to a running agent which isolates a test from the other tests
+ * using the same agent. All keys are stored below a unique prefix and the
+ * names and IDs of all services get a unique suffix, so that tests may
+ * run in parallel against a single agent. {@link #clear()} removes only
+ * the keys and the services of this namespace.
+ *
+ * @author Andrej Golovnin
+ * @see ConsulExtension
+ * @see ConsulNamespaceRule
+ */
+public final class ConsulNamespace {
+
+    private static final String RUN_ID = Long.toHexString(
+        ThreadLocalRandom.current().nextLong() & 0xffffffffL);
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    private final ConsulAgentProcess process;
+    private final ConsulHttp http;
+    private final String id;
+    private final Set<String> services;
+
+    ConsulNamespace(ConsulAgentProcess process) {
+        this.process = requireNonNull(process, "process may not be null");
+        this.http = ConsulHttp.of(process.getConfig());
+        this.id = "ns-" + RUN_ID + '-' + COUNTER.incrementAndGet();
+        this.services = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Returns the unique ID of this namespace.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the prefix of all keys of this namespace.
+     */
+    public String getPrefix() {
+        return id + '/';
+    }
+
+    /**
+     * Returns the full key of the given key of this namespace.
+     */
+    public String key(String key) {
+        return getPrefix() + key;
+    }
+
+    /**
+     * Returns the name of the given service in this namespace.
+     */
+    public String serviceName(String name) {
+        return name + '-' + id;
+    }
+
+    public ConsulAgentProcess getProcess() {
+        return process;
+    }
+
+    public int getHttpPort() {
+        return process.getConfig().getHttpPort();
+    }
+
+    public void put(String key, String value) throws IOException {
+        http.put(kvPath(key), value);
+    }
+
+    /**
+     * Returns the value of the given key or {@code null} if the key does
+     * not exist.
+     */
+    public String get(String key) throws IOException {
+        return http.get(kvPath(key) + "?raw");
+    }
+
+    public void delete(String key) throws IOException {
+        http.delete(kvPath(key));
+    }
+
+    /**
+     * Returns the keys of this namespace without the prefix.
+     */
+    public List<String> keys() throws IOException {
+        String body = http.get(kvPath("") + "?keys");
+        if (body == null) {
+            return Collections.emptyList();
+        }
+        List<String> keys = new ArrayList<>();
+        int prefixLength = getPrefix().length();
+        for (Object key : (List<?>) ConsulJson.parse(body)) {
+            keys.add(((String) key).substring(prefixLength));
+        }
+        return keys;
+    }
+
+    /**
+     * Registers the given service with the agent. The name and the ID of
+     * the service get the suffix of this namespace.
+     *
+     * @return the ID of the registered service.
+     * @see #serviceName(String)
+     */
+    public String register(ConsulService service) throws IOException {
+        ConsulService scoped = service.withSuffix('-' + id);
+        StringBuilder body = new StringBuilder();
+        scoped.writeTo(new ConsulJsonWriter(body));
+        String serviceId = scoped.getId().isEmpty()
+            ? scoped.getName()
+            : scoped.getId();
+        services.add(serviceId);
+        http.put("/v1/agent/service/register", body.toString());
+        return serviceId;
+    }
+
+    public void deregister(String serviceId) throws IOException {
+        http.put("/v1/agent/service/deregister/"
+            + ConsulHttp.encode(serviceId), "");
+        services.remove(serviceId);
+    }
+
+    /**
+     * Removes all keys of this namespace with a single request and
+     * deregisters all services registered through this namespace.
+     */
+    public void clear() throws IOException {
+        http.delete(kvPath("") + "?recurse");
+        for (String serviceId : new ArrayList<>(services)) {
+            deregister(serviceId);
+        }
+    }
+
+    private String kvPath(String key) {
+        return ConsulHttp.kvPath(key(key));
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A JUnit 4 rule which provides a {@link ConsulNamespace} to every test:
+ * <pre>
+ * &#64;Rule
+ * public final ConsulNamespaceRule consul = new ConsulNamespaceRule();
+ *
+ * &#64;Test
+ * public void test() throws IOException {
+ *     consul.namespace().put("key", "value");
+ * }
+ * </pre>
+ * The agent is started with the given {@link ConsulAgentStarter} and is
+ * shared by all tests using an equivalent configuration, see
+ * {@link ConsulSharedAgents}. The namespace is cleared when the test has
+ * finished.
+ *
+ * @author Andrej Golovnin
+ * @see ConsulExtension
+ */
+public final class ConsulNamespaceRule implements TestRule {
+
+    private final ConsulAgentStarter starter;
+    private final ConsulAgentConfig config;
+    private volatile ConsulNamespace namespace;
+
+    /**
+     * Creates a rule starting the agent on random ports using the default
+     * {@link ConsulAgentStarter}.
+     */
+    public ConsulNamespaceRule() {
+        this.starter = ConsulAgentStarter.getDefaultInstance();
+        this.config = null;
+    }
+
+    public ConsulNamespaceRule(ConsulAgentConfig config) {
+        this(ConsulAgentStarter.getDefaultInstance(), config);
+    }
+
+    public ConsulNamespaceRule(ConsulAgentStarter starter,
+        ConsulAgentConfig config)
+    {
+        this.starter = requireNonNull(starter, "starter may not be null");
+        this.config = requireNonNull(config, "config may not be null");
+    }
+
+    /**
+     * Returns the namespace of the running test.
+     */
+    public ConsulNamespace namespace() {
+        ConsulNamespace result = namespace;
+        if (result == null) {
+            throw new IllegalStateException("No test is running");
+        }
+        return result;
+    }
+
+    private ConsulAgentConfig config() {
+        return config != null
+            ? config
+            : new ConsulAgentConfig.Builder().randomPorts().build();
+    }
+
+    @Override
+    public Statement apply(Statement base, Description description) {
+        return new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+                ConsulAgentProcess process =
+                    ConsulSharedAgents.acquire(starter, config());
+                namespace = new ConsulNamespace(process);
+                List<Throwable> errors = new ArrayList<>();
+                try {
+                    base.evaluate();
+                } catch (Throwable t) {
+                    errors.add(t);
+                } finally {
+                    try {
+                        namespace.clear();
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                    namespace = null;
+                    ConsulSharedAgents.release(process);
+                }
+                MultipleFailureException.assertEmpty(errors);
+            }
+
+        };
+    }
+
+}
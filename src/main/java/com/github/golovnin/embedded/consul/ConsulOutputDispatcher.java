@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Queues lines of the agent's output in a bounded ring and delivers them
+ * in batches to a consumer. The queues of all dispatchers are drained by
+ * a shared bounded executor, at most one batch per task, so that neither
+ * the number of agents nor a slow consumer determines the number of
+ * threads. Queued lines are still delivered after {@link #close()}.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulOutputDispatcher implements Consumer<String>, AutoCloseable {
+
+    static final int PARALLELISM = 4;
+
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        EXECUTOR = new ThreadPoolExecutor(PARALLELISM, PARALLELISM,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new ConsulThreadFactory("embedded-consul-dispatcher"));
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final String[] ring;
+    private final ConsulOverflowPolicy policy;
+    private final int maxBatchSize;
+    private final Consumer<List<String>> consumer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+
+    private int head;
+    private int size;
+    private boolean closed;
+    private boolean scheduled;
+    private long dropped;
+
+    ConsulOutputDispatcher(int capacity, ConsulOverflowPolicy policy,
+        int maxBatchSize, Consumer<List<String>> consumer)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                "capacity must be greater than zero: " + capacity);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException(
+                "maxBatchSize must be greater than zero: " + maxBatchSize);
+        }
+        this.ring = new String[capacity];
+        this.policy = requireNonNull(policy, "policy may not be null");
+        this.maxBatchSize = maxBatchSize;
+        this.consumer = requireNonNull(consumer, "consumer may not be null");
+    }
+
+    @Override
+    public void accept(String line) {
+        lock.lock();
+        try {
+            if (closed) {
+                dropped++;
+                return;
+            }
+            while (size == ring.length) {
+                switch (policy) {
+                case BLOCK:
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped++;
+                        return;
+                    }
+                    if (closed) {
+                        dropped++;
+                        return;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                    size--;
+                    dropped++;
+                    break;
+                default:
+                    dropped++;
+                    return;
+                }
+            }
+            ring[(head + size) % ring.length] = line;
+            size++;
+            if (!scheduled) {
+                scheduled = true;
+                EXECUTOR.execute(this::drain);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of lines discarded because the queue was full.
+     */
+    long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting new lines. Queued lines are still delivered.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all queued lines have been delivered after
+     * {@link #close()}.
+     */
+    boolean awaitTermination(long millis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        lock.lock();
+        try {
+            while (!closed || scheduled) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = idle.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        try {
+            consumer.accept(take());
+        } catch (RuntimeException e) {
+            // A failing consumer must not stop the delivery.
+        } finally {
+            lock.lock();
+            try {
+                if (size > 0) {
+                    EXECUTOR.execute(this::drain);
+                } else {
+                    scheduled = false;
+                    idle.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private List<String> take() {
+        lock.lock();
+        try {
+            int count = Math.min(size, maxBatchSize);
+            List<String> batch = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                batch.add(ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+            }
+            size -= count;
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -57,6 +57,9 @@ final class ConsulOutputProcessor implements IStreamProcessor {
 
     @Override
     public void onProcessed() {
+        if (outputProcessor instanceof ConsulOutputDispatcher) {
+            ((ConsulOutputDispatcher) outputProcessor).close();
+        }
         delegate.onProcessed();
     }
 
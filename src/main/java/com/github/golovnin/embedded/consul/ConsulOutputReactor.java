@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+import de.flapdoodle.embed.process.runtime.ProcessControl;
+
+/**
+ * Reads the output of all agents on a fixed number of threads, instead of
+ * two blocking reader threads per agent. Process pipes cannot be selected
+ * in Java, so every thread polls the pipes assigned to it for available
+ * bytes and backs off while all of them are idle. The bytes are split
+ * into lines in place and passed line by line, including the line
+ * terminator, to the processors.
+ *
+ * <p>The processors of all pipes served by a thread are called on that
+ * thread. Only pipes whose processors never block may therefore be
+ * connected. The output passed to user code is read by dedicated threads
+ * instead (see {@link ConsulAgentProcess}).
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulOutputReactor {
+
+    static final int THREADS = Math.max(1,
+        Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final long MIN_IDLE = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MAX_IDLE = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Longer lines are passed to the processors in chunks of this size.
+     */
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final Field PROCESS;
+
+    private static final Loop[] LOOPS;
+
+    static {
+        Field process;
+        try {
+            process = ProcessControl.class.getDeclaredField("process");
+            process.setAccessible(true);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // An incompatible version of flapdoodle.
+            process = null;
+        }
+        PROCESS = process;
+        ThreadFactory threads = new ConsulThreadFactory("embedded-consul-output");
+        LOOPS = new Loop[THREADS];
+        for (int i = 0; i < LOOPS.length; i++) {
+            LOOPS[i] = new Loop();
+            threads.newThread(LOOPS[i]).start();
+        }
+    }
+
+    private ConsulOutputReactor() {
+        // NOP
+    }
+
+    /**
+     * Connects the output of the process started by the given control to
+     * the processors.
+     *
+     * @return {@code false} if the process is not accessible, in which
+     *      case the caller has to read the output itself.
+     */
+    static boolean connect(ProcessControl control, IStreamProcessor out,
+        IStreamProcessor err)
+    {
+        Process process;
+        try {
+            process = PROCESS == null ? null : (Process) PROCESS.get(control);
+        } catch (IllegalAccessException e) {
+            process = null;
+        }
+        if (process == null) {
+            return false;
+        }
+        connect(process, out, err);
+        return true;
+    }
+
+    static void connect(Process process, IStreamProcessor out,
+        IStreamProcessor err)
+    {
+        leastLoaded().add(new Pipe(process, process.getInputStream(), out));
+        leastLoaded().add(new Pipe(process, process.getErrorStream(), err));
+    }
+
+    private static Loop leastLoaded() {
+        Loop result = LOOPS[0];
+        for (int i = 1; i < LOOPS.length; i++) {
+            if (LOOPS[i].size() < result.size()) {
+                result = LOOPS[i];
+            }
+        }
+        return result;
+    }
+
+    private static final class Loop implements Runnable {
+
+        private final List<Pipe> pipes = new ArrayList<>();
+
+        synchronized void add(Pipe pipe) {
+            pipes.add(pipe);
+            notifyAll();
+        }
+
+        synchronized int size() {
+            return pipes.size();
+        }
+
+        private synchronized void remove(Pipe pipe) {
+            pipes.remove(pipe);
+        }
+
+        private synchronized Pipe[] awaitPipes(Pipe[] snapshot)
+            throws InterruptedException
+        {
+            while (pipes.isEmpty()) {
+                wait();
+            }
+            return pipes.toArray(snapshot);
+        }
+
+        @Override
+        public void run() {
+            Pipe[] snapshot = new Pipe[0];
+            long idle = 0;
+            try {
+                while (true) {
+                    snapshot = awaitPipes(snapshot);
+                    boolean active = false;
+                    for (int i = 0; i < snapshot.length && snapshot[i] != null; i++) {
+                        Pipe pipe = snapshot[i];
+                        int read;
+                        try {
+                            read = pipe.poll();
+                        } catch (Throwable e) {
+                            // A failing processor must not stop the output
+                            // of the other agents served by this thread.
+                            pipe.abort();
+                            read = -1;
+                        }
+                        if (read < 0) {
+                            remove(pipe);
+                        } else if (read > 0) {
+                            active = true;
+                        }
+                    }
+                    Arrays.fill(snapshot, null);
+                    if (active) {
+                        idle = 0;
+                    } else {
+                        idle = Math.min(Math.max(MIN_IDLE, idle * 2), MAX_IDLE);
+                        LockSupport.parkNanos(idle);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    private static final class Pipe {
+
+        private final Process process;
+        private final InputStream in;
+        private final IStreamProcessor processor;
+        private byte[] buffer;
+        private int length;
+        private int scanned;
+
+        Pipe(Process process, InputStream in, IStreamProcessor processor) {
+            this.process = process;
+            this.in = in;
+            this.processor = processor;
+            this.buffer = new byte[BUFFER_SIZE];
+        }
+
+        /**
+         * Reads the available bytes without blocking.
+         *
+         * @return the number of bytes read or {@code -1} if the pipe has
+         *      been closed.
+         */
+        int poll() {
+            try {
+                // Check the process first, so that no output written before
+                // its exit is missed.
+                boolean alive = process.isAlive();
+                int available = in.available();
+                if (available == 0) {
+                    if (alive) {
+                        return 0;
+                    }
+                    close();
+                    return -1;
+                }
+                if (length == buffer.length) {
+                    if (buffer.length < MAX_LINE_LENGTH) {
+                        buffer = Arrays.copyOf(buffer,
+                            Math.min(buffer.length * 2, MAX_LINE_LENGTH));
+                    } else {
+                        // Flush the partial line instead of growing
+                        // the buffer without limit.
+                        emit(0, length);
+                        length = 0;
+                        scanned = 0;
+                    }
+                }
+                int read = in.read(buffer, length,
+                    Math.min(available, buffer.length - length));
+                if (read < 0) {
+                    close();
+                    return -1;
+                }
+                length += read;
+                splitLines();
+                return read;
+            } catch (IOException e) {
+                // The stream has been closed by stopping the process.
+                close();
+                return -1;
+            }
+        }
+
+        private void splitLines() {
+            int start = 0;
+            for (int i = scanned; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    emit(start, i + 1);
+                    start = i + 1;
+                }
+            }
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, length - start);
+                length -= start;
+            }
+            scanned = length;
+        }
+
+        private void emit(int from, int to) {
+            try {
+                processor.process(
+                    new String(buffer, from, to - from, Charset.defaultCharset()));
+            } catch (RuntimeException e) {
+                // A failing consumer must not stop the output of the agent.
+            }
+        }
+
+        private void close() {
+            if (length > 0) {
+                emit(0, length);
+                length = 0;
+            }
+            try {
+                processor.onProcessed();
+            } catch (RuntimeException e) {
+                // See emit().
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore it.
+            }
+        }
+
+        /**
+         * Closes the pipe after an unexpected failure without passing the
+         * buffered bytes to the processor.
+         */
+        void abort() {
+            length = 0;
+            try {
+                processor.onProcessed();
+            } catch (Throwable e) {
+                // Ignore it, the pipe is closed anyway.
+            }
+            try {
+                in.close();
+            } catch (Throwable e) {
+                // Ignore it.
+            }
+        }
+
+    }
+
+}
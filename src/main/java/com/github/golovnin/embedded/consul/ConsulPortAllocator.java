@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates blocks of {@value #BLOCK_SIZE} consecutive ports for the
+ * agents. A block is reserved across JVMs by holding an exclusive lock
+ * on a file in {@code ${java.io.tmpdir}/embedded-consul-ports} until it
+ * is released, so that parallel test forks never hand out the same
+ * ports. Before a block is reserved, its ports are checked to be free
+ * for TCP and UDP.
+ *
+ * <p>The ports are taken from the range below the ephemeral port range
+ * of Linux, so that they do not collide with outgoing connections.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulPortAllocator {
+
+    static final int BLOCK_SIZE = 5;
+
+    private static final int FIRST_PORT = 10000;
+    private static final int LAST_PORT = 32000;
+    private static final int BLOCKS = (LAST_PORT - FIRST_PORT) / BLOCK_SIZE;
+
+    private static final File LOCK_DIR = new File(
+        System.getProperty("java.io.tmpdir"), "embedded-consul-ports");
+
+    private static final Map<Integer, FileLock> RESERVED = new HashMap<>();
+
+    private static final AtomicLong ALLOCATIONS = new AtomicLong();
+    private static final AtomicLong CONFLICTS = new AtomicLong();
+    private static final AtomicLong RETRIES = new AtomicLong();
+
+    private static int next = ThreadLocalRandom.current().nextInt(BLOCKS);
+
+    private ConsulPortAllocator() {
+        // NOP
+    }
+
+    /**
+     * Returns the number of blocks reserved by this JVM.
+     */
+    public static long getAllocations() {
+        return ALLOCATIONS.get();
+    }
+
+    /**
+     * Returns the number of blocks skipped during allocation, because
+     * they were reserved by another JVM or one of their ports was in use.
+     */
+    public static long getConflicts() {
+        return CONFLICTS.get();
+    }
+
+    /**
+     * Returns the number of times an agent has been started again with
+     * a fresh block, because it could not bind one of its ports.
+     */
+    public static long getRetries() {
+        return RETRIES.get();
+    }
+
+    /**
+     * Reserves a block of free ports on the given address.
+     *
+     * @return the ports of the block in ascending order.
+     * @throws IOException if there is no free block.
+     */
+    static synchronized int[] allocate(InetAddress address)
+        throws IOException
+    {
+        createLockDir();
+        for (int i = 0; i < BLOCKS; i++) {
+            int base = FIRST_PORT + next * BLOCK_SIZE;
+            next = (next + 1) % BLOCKS;
+            if (tryReserve(address, base)) {
+                int[] ports = new int[BLOCK_SIZE];
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    ports[j] = base + j;
+                }
+                return ports;
+            }
+        }
+        throw new IOException("No free block of " + BLOCK_SIZE
+            + " ports between " + FIRST_PORT + " and " + LAST_PORT);
+    }
+
+    /**
+     * Reserves the block starting with the given port, e.g. to restart an
+     * agent on the ports it used before.
+     *
+     * @return {@code false} if the block is reserved or one of its ports
+     *         is in use.
+     */
+    static synchronized boolean reserve(InetAddress address, int base)
+        throws IOException
+    {
+        createLockDir();
+        return tryReserve(address, base);
+    }
+
+    /**
+     * Releases the block starting with the given port. Does nothing if
+     * the block has not been reserved by this JVM.
+     */
+    static synchronized void release(int base) {
+        FileLock lock = RESERVED.remove(base);
+        if (lock != null) {
+            try {
+                lock.channel().close();
+            } catch (IOException e) {
+                // Ignore it, the lock is released when the JVM exits.
+            }
+        }
+    }
+
+    static synchronized boolean isReserved(int base) {
+        return RESERVED.containsKey(base);
+    }
+
+    static void recordRetry() {
+        RETRIES.incrementAndGet();
+    }
+
+    private static void createLockDir() throws IOException {
+        if (!LOCK_DIR.isDirectory() && !LOCK_DIR.mkdirs()
+            && !LOCK_DIR.isDirectory())
+        {
+            throw new IOException("Could not create " + LOCK_DIR);
+        }
+    }
+
+    private static boolean tryReserve(InetAddress address, int base)
+        throws IOException
+    {
+        if (RESERVED.containsKey(base)) {
+            return false;
+        }
+        FileLock lock = tryLock(base);
+        if (lock == null) {
+            CONFLICTS.incrementAndGet();
+            return false;
+        }
+        if (!isFree(address, base)) {
+            lock.channel().close();
+            CONFLICTS.incrementAndGet();
+            return false;
+        }
+        RESERVED.put(base, lock);
+        ALLOCATIONS.incrementAndGet();
+        return true;
+    }
+
+    private static FileLock tryLock(int base) throws IOException {
+        FileChannel channel = FileChannel.open(
+            new File(LOCK_DIR, base + ".lock").toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return lock;
+            }
+        } catch (OverlappingFileLockException e) {
+            // Reserved by another class loader in this JVM.
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    private static boolean isFree(InetAddress address, int base) {
+        for (int port = base; port < base + BLOCK_SIZE; port++) {
+            try (ServerSocket tcp = new ServerSocket();
+                 DatagramSocket udp = new DatagramSocket(null))
+            {
+                tcp.bind(new InetSocketAddress(address, port));
+                udp.bind(new InetSocketAddress(address, port));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
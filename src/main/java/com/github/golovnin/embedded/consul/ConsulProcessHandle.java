@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import de.flapdoodle.embed.process.runtime.ProcessControl;
+
+/**
+ * Controls an agent process using {@code java.lang.ProcessHandle}, which
+ * neither forks {@code kill} commands nor polls for the exit of the
+ * process. The API is accessed reflectively, because the library is
+ * compiled for Java 8. On Java 8 no handles are available and the callers
+ * fall back to the process control of flapdoodle.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulProcessHandle {
+
+    private static final boolean SUPPORTED;
+    private static final Field PROCESS;
+    private static final Method TO_HANDLE;
+    private static final Method OF;
+    private static final Method PID;
+    private static final Method IS_ALIVE;
+    private static final Method DESTROY;
+    private static final Method DESTROY_FORCIBLY;
+    private static final Method DESCENDANTS;
+    private static final Method ON_EXIT;
+
+    static {
+        boolean supported = false;
+        Field process = null;
+        Method toHandle = null;
+        Method of = null;
+        Method pid = null;
+        Method isAlive = null;
+        Method destroy = null;
+        Method destroyForcibly = null;
+        Method descendants = null;
+        Method onExit = null;
+        try {
+            Class<?> type = Class.forName("java.lang.ProcessHandle");
+            process = ProcessControl.class.getDeclaredField("process");
+            process.setAccessible(true);
+            toHandle = Process.class.getMethod("toHandle");
+            of = type.getMethod("of", long.class);
+            pid = type.getMethod("pid");
+            isAlive = type.getMethod("isAlive");
+            destroy = type.getMethod("destroy");
+            destroyForcibly = type.getMethod("destroyForcibly");
+            descendants = type.getMethod("descendants");
+            onExit = type.getMethod("onExit");
+            supported = true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8 or an incompatible version of flapdoodle.
+        }
+        SUPPORTED = supported;
+        PROCESS = process;
+        TO_HANDLE = toHandle;
+        OF = of;
+        PID = pid;
+        IS_ALIVE = isAlive;
+        DESTROY = destroy;
+        DESTROY_FORCIBLY = destroyForcibly;
+        DESCENDANTS = descendants;
+        ON_EXIT = onExit;
+    }
+
+    private final Object handle;
+
+    private ConsulProcessHandle(Object handle) {
+        this.handle = handle;
+    }
+
+    static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Returns the handle of the process started by the given control or
+     * {@code null}, if handles are not supported.
+     */
+    static ConsulProcessHandle of(ProcessControl control) {
+        if (!SUPPORTED) {
+            return null;
+        }
+        try {
+            Object process = PROCESS.get(control);
+            return process == null
+                ? null
+                : new ConsulProcessHandle(TO_HANDLE.invoke(process));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the handle of the process with the given PID or
+     * {@code null}, if handles are not supported or the process does not
+     * exist.
+     */
+    static ConsulProcessHandle of(long pid) {
+        if (!SUPPORTED) {
+            return null;
+        }
+        try {
+            Optional<?> handle = (Optional<?>) OF.invoke(null, pid);
+            return handle.map(ConsulProcessHandle::new).orElse(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    long pid() {
+        return (Long) invoke(PID, handle);
+    }
+
+    boolean isAlive() {
+        return (Boolean) invoke(IS_ALIVE, handle);
+    }
+
+    /**
+     * Sends {@code SIGTERM} or, if {@code forcibly} is {@code true},
+     * {@code SIGKILL} to the process. The descendants of the process are
+     * killed as well when the process is killed forcibly, because they
+     * are not terminated by the process itself.
+     */
+    void destroy(boolean forcibly) {
+        if (forcibly) {
+            Object[] descendants = ((Stream<?>) invoke(DESCENDANTS, handle)).toArray();
+            for (Object descendant : descendants) {
+                invoke(DESTROY_FORCIBLY, descendant);
+            }
+            invoke(DESTROY_FORCIBLY, handle);
+        } else {
+            invoke(DESTROY, handle);
+        }
+    }
+
+    /**
+     * Returns a future which is completed when the process has exited.
+     */
+    CompletableFuture<Void> onExit() {
+        return ((CompletableFuture<?>) invoke(ON_EXIT, handle))
+            .thenApply(h -> (Void) null);
+    }
+
+    private static Object invoke(Method method, Object target) {
+        try {
+            return method.invoke(target);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+}
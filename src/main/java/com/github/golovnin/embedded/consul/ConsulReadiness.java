@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The built-in readiness probes.
+ *
+ * @author Andrej Golovnin
+ */
+public enum ConsulReadiness implements ConsulReadinessProbe {
+
+    /**
+     * The agent is ready as soon as it logs "Consul agent running!".
+     * A leader may not be elected at this point.
+     */
+    LOG_LINE {
+
+        @Override
+        public boolean isReady(ConsulAgentConfig config) {
+            return true;
+        }
+
+    },
+
+    /**
+     * The agent is ready when {@code /v1/status/leader} reports a leader.
+     */
+    LEADER_ELECTED {
+
+        @Override
+        public boolean isReady(ConsulAgentConfig config) throws IOException {
+            String leader = ConsulHttp.of(config).get("/v1/status/leader");
+            return leader != null && !"\"\"".equals(leader.trim());
+        }
+
+    },
+
+    /**
+     * The agent is ready when its own node is visible in
+     * {@code /v1/catalog/nodes}.
+     */
+    CATALOG_SYNCED {
+
+        @Override
+        public boolean isReady(ConsulAgentConfig config) throws IOException {
+            String nodes = ConsulHttp.of(config).get("/v1/catalog/nodes");
+            for (Map<String, Object> node : ConsulJson.parseObjects(nodes)) {
+                if (config.getNode().equals(node.get("Node"))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
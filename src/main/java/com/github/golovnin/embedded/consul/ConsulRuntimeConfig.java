@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import de.flapdoodle.embed.process.config.IRuntimeConfig;
+import de.flapdoodle.embed.process.config.io.ProcessOutput;
+import de.flapdoodle.embed.process.runtime.ICommandLinePostProcessor;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A runtime configuration with a {@link ConsulLifecycleListener}.
+ *
+ * <p>Example:
+ * <pre>
+ * ConsulLifecycleStatistics statistics = new ConsulLifecycleStatistics();
+ * ConsulAgentStarter starter = ConsulAgentStarter.getInstance(
+ *     ConsulRuntimeConfig.withListener(statistics));
+ * </pre>
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulRuntimeConfig implements IRuntimeConfig {
+
+    private final IRuntimeConfig delegate;
+    private final IArtifactStore artifactStore;
+    private final ConsulLifecycleListener listener;
+
+    private ConsulRuntimeConfig(IRuntimeConfig delegate,
+        ConsulLifecycleListener listener)
+    {
+        IArtifactStore store = delegate.getArtifactStore();
+        if (store instanceof ConsulArtifactStore) {
+            store = ((ConsulArtifactStore) store).withListener(listener);
+        }
+        this.delegate = delegate;
+        this.artifactStore = store;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the default runtime configuration with the given listener.
+     */
+    public static ConsulRuntimeConfig withListener(
+        ConsulLifecycleListener listener)
+    {
+        return withListener(ConsulBuilders.runtimeConfigBuilder().build(),
+            listener);
+    }
+
+    /**
+     * Returns the given runtime configuration with the given listener.
+     */
+    public static ConsulRuntimeConfig withListener(IRuntimeConfig config,
+        ConsulLifecycleListener listener)
+    {
+        if (config instanceof ConsulRuntimeConfig) {
+            config = ((ConsulRuntimeConfig) config).delegate;
+        }
+        return new ConsulRuntimeConfig(config, requireNonNull(listener));
+    }
+
+    static ConsulLifecycleListener listenerOf(IRuntimeConfig config) {
+        if (config instanceof ConsulRuntimeConfig) {
+            return ((ConsulRuntimeConfig) config).listener;
+        }
+        return ConsulLifecycleListener.NOP;
+    }
+
+    public ConsulLifecycleListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public ProcessOutput getProcessOutput() {
+        return delegate.getProcessOutput();
+    }
+
+    @Override
+    public ICommandLinePostProcessor getCommandLinePostProcessor() {
+        return delegate.getCommandLinePostProcessor();
+    }
+
+    @Override
+    public IArtifactStore getArtifactStore() {
+        return artifactStore;
+    }
+
+    @Override
+    public boolean isDaemonProcess() {
+        return delegate.isDaemonProcess();
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.flapdoodle.embed.process.builder.AbstractBuilder;
+import de.flapdoodle.embed.process.builder.TypedProperty;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The data loaded into an agent before its startup completes. The
+ * services are written to the configuration file of the agent, so that
+ * they exist at boot without any HTTP request. The KV entries are loaded
+ * using batched transactions sent in parallel, see
+ * {@link ConsulClient#putAll(Map)}, as soon as the agent is ready.
+ *
+ * <p>The entries are read from JSON, YAML ({@code .yaml} or {@code .yml})
+ * and properties files. Nested objects are flattened by joining their
+ * keys with {@code /}. JSON and YAML files are streamed and loaded in
+ * batches of {@code batchSize} entries, so that even very large files
+ * need little memory.
+ *
+ * @author Andrej Golovnin
+ * @see ConsulAgentConfig.Builder#seed(ConsulSeed)
+ */
+public final class ConsulSeed {
+
+    private static final AtomicLong SERIALS = new AtomicLong();
+
+    /**
+     * A seed without any data.
+     */
+    public static final ConsulSeed NONE = new Builder().build();
+
+    private final long serial;
+    private final Map<String, String> entries;
+    private final List<Path> files;
+    private final List<ConsulService> services;
+    private final int batchSize;
+    private final int parallelism;
+    private final ConsulSeedListener listener;
+
+    ConsulSeed(Map<String, String> entries, List<Path> files,
+        List<ConsulService> services, int batchSize, int parallelism,
+        ConsulSeedListener listener)
+    {
+        this.serial = SERIALS.incrementAndGet();
+        this.entries = entries;
+        this.files = files;
+        this.services = services;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.listener = listener;
+    }
+
+    public static final class Builder extends AbstractBuilder<ConsulSeed> {
+
+        private static final TypedProperty<Map> ENTRIES =
+            TypedProperty.with("entries", Map.class);
+
+        private static final TypedProperty<List> FILES =
+            TypedProperty.with("files", List.class);
+
+        private static final TypedProperty<List> SERVICES =
+            TypedProperty.with("services", List.class);
+
+        private static final TypedProperty<Integer> BATCH_SIZE =
+            TypedProperty.with("batch-size", Integer.class);
+
+        private static final TypedProperty<Integer> PARALLELISM =
+            TypedProperty.with("parallelism", Integer.class);
+
+        private static final TypedProperty<ConsulSeedListener> LISTENER =
+            TypedProperty.with("listener", ConsulSeedListener.class);
+
+        public Builder() {
+            property(ENTRIES).setDefault(Collections.emptyMap());
+            property(FILES).setDefault(Collections.emptyList());
+            property(SERVICES).setDefault(Collections.emptyList());
+            property(BATCH_SIZE).setDefault(64 * ConsulClient.MAX_TXN_OPERATIONS);
+            property(PARALLELISM).setDefault(4);
+            property(LISTENER).setDefault(ConsulSeedListener.NOP);
+        }
+
+        public Builder entries(Map<String, String> entries) {
+            property(ENTRIES).set(
+                Collections.unmodifiableMap(new LinkedHashMap<>(entries)));
+            return this;
+        }
+
+        /**
+         * Loads the entries of the given files after the entries set by
+         * {@link #entries(Map)}, in the given order.
+         */
+        public Builder files(Path... files) {
+            List<Path> list = new ArrayList<>(files.length);
+            for (Path file : files) {
+                list.add(requireNonNull(file));
+            }
+            property(FILES).set(Collections.unmodifiableList(list));
+            return this;
+        }
+
+        public Builder services(List<ConsulService> services) {
+            property(SERVICES).set(
+                Collections.unmodifiableList(new ArrayList<>(services)));
+            return this;
+        }
+
+        /**
+         * Sets the number of entries read before they are loaded into the
+         * agent. The default is 4096.
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException(
+                    "batchSize must be greater than zero: " + batchSize);
+            }
+            property(BATCH_SIZE).set(batchSize);
+            return this;
+        }
+
+        /**
+         * Sets the number of transactions sent at once. The default is 4.
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException(
+                    "parallelism must be greater than zero: " + parallelism);
+            }
+            property(PARALLELISM).set(parallelism);
+            return this;
+        }
+
+        public Builder listener(ConsulSeedListener listener) {
+            property(LISTENER).set(requireNonNull(listener));
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ConsulSeed build() {
+            return new ConsulSeed(
+                (Map<String, String>) property(ENTRIES).get(),
+                (List<Path>) property(FILES).get(),
+                (List<ConsulService>) property(SERVICES).get(),
+                property(BATCH_SIZE).get(),
+                property(PARALLELISM).get(),
+                property(LISTENER).get());
+        }
+
+    }
+
+    public Map<String, String> getEntries() {
+        return entries;
+    }
+
+    public List<Path> getFiles() {
+        return files;
+    }
+
+    public List<ConsulService> getServices() {
+        return services;
+    }
+
+    /**
+     * Returns the number identifying this instance.
+     */
+    long getSerial() {
+        return serial;
+    }
+
+    boolean hasEntries() {
+        return !entries.isEmpty() || !files.isEmpty();
+    }
+
+    /**
+     * Loads the KV entries into the agent.
+     *
+     * @return the number of loaded entries.
+     */
+    long load(ConsulHttp http) throws IOException {
+        Loader loader = new Loader(new ConsulClient(http, parallelism));
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            loader.accept(entry.getKey(), entry.getValue());
+        }
+        for (Path file : files) {
+            ConsulSeedReader.read(file, loader);
+        }
+        loader.flush();
+        listener.onProgress(loader.loaded, System.nanoTime() - loader.start, true);
+        return loader.loaded;
+    }
+
+    private final class Loader implements ConsulSeedReader.Sink {
+
+        private final ConsulClient client;
+        private final Map<String, String> batch;
+        private final long start;
+        private long loaded;
+
+        Loader(ConsulClient client) {
+            this.client = client;
+            this.batch = new LinkedHashMap<>();
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void accept(String key, String value) throws IOException {
+            batch.put(key, value);
+            if (batch.size() == batchSize) {
+                flush();
+                listener.onProgress(loaded, System.nanoTime() - start, false);
+            }
+        }
+
+        void flush() throws IOException {
+            if (!batch.isEmpty()) {
+                client.putAll(batch);
+                loaded += batch.size();
+                batch.clear();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Reads KV entries from JSON, YAML and properties files. Nested objects
+ * are flattened by joining their keys with {@code /}. JSON and YAML
+ * files are read as a stream, so that the size of a file is not limited
+ * by the available memory.
+ *
+ * <p>Only a subset of YAML is supported: nested mappings of scalars,
+ * optionally quoted, and comments. Null values ({@code ~}, {@code null} or
+ * a key without a value and without nested keys) are stored as empty
+ * values like {@code null} in JSON. Arrays in JSON files are stored as
+ * JSON text.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulSeedReader {
+
+    @FunctionalInterface
+    interface Sink {
+
+        void accept(String key, String value) throws IOException;
+
+    }
+
+    private final Reader in;
+    private final Sink sink;
+    private int next;
+    private long line;
+
+    private ConsulSeedReader(Reader in, Sink sink) {
+        this.in = in;
+        this.sink = sink;
+        this.line = 1;
+    }
+
+    /**
+     * Reads the entries of the given file. The format is determined by
+     * the extension of the file: {@code .json}, {@code .yaml},
+     * {@code .yml} or {@code .properties}.
+     */
+    static void read(Path file, Sink sink) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (name.endsWith(".json")) {
+                readJson(in, sink);
+            } else if (name.endsWith(".yaml") || name.endsWith(".yml")) {
+                readYaml(in, sink);
+            } else if (name.endsWith(".properties")) {
+                readProperties(in, sink);
+            } else {
+                throw new IOException("Unknown format of seed file: " + file);
+            }
+        }
+    }
+
+    static void readProperties(Reader in, Sink sink) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+        for (String key : properties.stringPropertyNames()) {
+            sink.accept(key, properties.getProperty(key));
+        }
+    }
+
+    static void readJson(Reader in, Sink sink) throws IOException {
+        ConsulSeedReader reader = new ConsulSeedReader(in, sink);
+        reader.advance();
+        reader.skipWhitespace();
+        reader.readObject("");
+        reader.skipWhitespace();
+        if (reader.next != -1) {
+            throw reader.error("Unexpected trailing characters");
+        }
+    }
+
+    static void readYaml(BufferedReader in, Sink sink) throws IOException {
+        // The keys and the indentations of the enclosing mappings.
+        Deque<String> keys = new ArrayDeque<>();
+        Deque<Integer> indents = new ArrayDeque<>();
+        // The last key without a value. It is a mapping only if the next
+        // line is indented deeper, otherwise its value is empty.
+        String empty = null;
+        int emptyIndent = 0;
+        String text;
+        long number = 0;
+        while ((text = in.readLine()) != null) {
+            number++;
+            int indent = 0;
+            while (indent < text.length() && text.charAt(indent) == ' ') {
+                indent++;
+            }
+            String content = text.substring(indent);
+            if (content.isEmpty() || content.startsWith("#")
+                || content.equals("---"))
+            {
+                continue;
+            }
+            if (content.charAt(0) == '\t') {
+                throw new IOException("Tabs are not allowed for indentation"
+                    + " (line " + number + ")");
+            }
+            if (empty != null && indent <= emptyIndent) {
+                sink.accept(empty, "");
+            }
+            empty = null;
+            while (!indents.isEmpty() && indent <= indents.peek()) {
+                indents.pop();
+                keys.pop();
+            }
+            int colon = yamlColon(content);
+            if (colon < 0) {
+                throw new IOException("Only mappings are supported (line "
+                    + number + ")");
+            }
+            String key = unquote(content.substring(0, colon).trim(), number);
+            String value = stripComment(content.substring(colon + 1).trim());
+            String path = keys.isEmpty() ? key : keys.peek() + '/' + key;
+            if (value.isEmpty()) {
+                keys.push(path);
+                indents.push(indent);
+                empty = path;
+                emptyIndent = indent;
+            } else {
+                sink.accept(path, isNull(value) ? "" : unquote(value, number));
+            }
+        }
+        if (empty != null) {
+            sink.accept(empty, "");
+        }
+    }
+
+    private static int yamlColon(String content) {
+        char quote = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == ':' && (i + 1 == content.length()
+                || content.charAt(i + 1) == ' '))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String stripComment(String value) {
+        int start = 0;
+        if (value.startsWith("\"") || value.startsWith("'")) {
+            start = closingQuote(value);
+            if (start < 0) {
+                // Reported as an unterminated string by unquote().
+                return value;
+            }
+        }
+        int comment = value.indexOf(" #", start);
+        return comment < 0 ? value : value.substring(0, comment).trim();
+    }
+
+    private static int closingQuote(String value) {
+        char quote = value.charAt(0);
+        for (int i = 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (quote == '"' && c == '\\') {
+                i++;
+            } else if (c == quote) {
+                if (quote == '\'' && i + 1 < value.length()
+                    && value.charAt(i + 1) == '\'')
+                {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String unquote(String value, long number) throws IOException {
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1).replace("''", "'");
+        }
+        if (value.startsWith("\"")) {
+            int end = value.lastIndexOf('"');
+            if (end == 0) {
+                throw new IOException("Unterminated string (line " + number + ")");
+            }
+            return ConsulJson.parse(value.substring(0, end + 1)).toString();
+        }
+        if (value.startsWith("[") || value.startsWith("{")
+            || value.startsWith("|") || value.startsWith(">")
+            || value.startsWith("- "))
+        {
+            throw new IOException("Only scalar values are supported (line "
+                + number + ")");
+        }
+        return value;
+    }
+
+    private static boolean isNull(String value) {
+        return value.equals("~") || value.equals("null")
+            || value.equals("Null") || value.equals("NULL");
+    }
+
+    private void readObject(String prefix) throws IOException {
+        expect('{');
+        skipWhitespace();
+        if (next == '}') {
+            advance();
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = prefix + readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (next == '{') {
+                readObject(key + '/');
+            } else {
+                sink.accept(key, readValue());
+            }
+            skipWhitespace();
+            if (next == ',') {
+                advance();
+            } else {
+                expect('}');
+                return;
+            }
+        }
+    }
+
+    private String readValue() throws IOException {
+        if (next == '"') {
+            return readString();
+        }
+        if (next == '[') {
+            StringBuilder sb = new StringBuilder();
+            readRaw(sb);
+            return sb.toString();
+        }
+        StringBuilder sb = new StringBuilder();
+        while (next != -1 && next != ',' && next != '}' && next != ']'
+            && !Character.isWhitespace(next))
+        {
+            sb.append((char) next);
+            advance();
+        }
+        String literal = sb.toString();
+        if (literal.isEmpty()) {
+            throw error("Value expected");
+        }
+        return "null".equals(literal) ? "" : literal;
+    }
+
+    /**
+     * Copies the next value including nested arrays and objects.
+     */
+    private void readRaw(StringBuilder sb) throws IOException {
+        int depth = 0;
+        do {
+            if (next == -1) {
+                throw error("Unexpected end of input");
+            }
+            if (next == '"') {
+                ConsulJson.appendQuoted(sb, readString());
+                continue;
+            }
+            if (next == '[' || next == '{') {
+                depth++;
+            } else if (next == ']' || next == '}') {
+                depth--;
+            }
+            if (!Character.isWhitespace(next)) {
+                sb.append((char) next);
+            }
+            advance();
+        } while (depth > 0);
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (next != '"') {
+            if (next == -1) {
+                throw error("Unterminated string");
+            }
+            if (next == '\\') {
+                advance();
+                switch (next) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        char[] hex = new char[4];
+                        for (int i = 0; i < hex.length; i++) {
+                            advance();
+                            hex[i] = (char) next;
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(new String(hex), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        break;
+                    case -1:
+                        throw error("Unterminated string");
+                    default:
+                        sb.append((char) next);
+                }
+            } else {
+                sb.append((char) next);
+            }
+            advance();
+        }
+        advance();
+        return sb.toString();
+    }
+
+    private void expect(char c) throws IOException {
+        if (next != c) {
+            throw error("'" + c + "' expected");
+        }
+        advance();
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (next != -1 && Character.isWhitespace(next)) {
+            advance();
+        }
+    }
+
+    private void advance() throws IOException {
+        if (next == '\n') {
+            line++;
+        }
+        next = in.read();
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " (line " + line + ")");
+    }
+
+}
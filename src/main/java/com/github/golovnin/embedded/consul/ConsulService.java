@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.flapdoodle.embed.process.builder.AbstractBuilder;
+import de.flapdoodle.embed.process.builder.TypedProperty;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A service registered through the configuration file of the agent.
+ *
+ * @author Andrej Golovnin
+ * @see ConsulAgentConfig.Builder#services(List)
+ */
+public final class ConsulService {
+
+    private final String id;
+    private final String name;
+    private final List<String> tags;
+    private final String address;
+    private final int port;
+    private final List<ConsulCheck> checks;
+
+    ConsulService(String id, String name, List<String> tags, String address,
+        int port, List<ConsulCheck> checks)
+    {
+        this.id = id;
+        this.name = name;
+        this.tags = tags;
+        this.address = address;
+        this.port = port;
+        this.checks = checks;
+    }
+
+    public static final class Builder extends AbstractBuilder<ConsulService> {
+
+        private static final TypedProperty<String> ID =
+            TypedProperty.with("id", String.class);
+
+        private static final TypedProperty<String> NAME =
+            TypedProperty.with("name", String.class);
+
+        private static final TypedProperty<List> TAGS =
+            TypedProperty.with("tags", List.class);
+
+        private static final TypedProperty<String> ADDRESS =
+            TypedProperty.with("address", String.class);
+
+        private static final TypedProperty<Integer> PORT =
+            TypedProperty.with("port", Integer.class);
+
+        private static final TypedProperty<List> CHECKS =
+            TypedProperty.with("checks", List.class);
+
+        public Builder(String name) {
+            property(NAME).set(requireNonNull(name));
+            property(ID).setDefault("");
+            property(TAGS).setDefault(Collections.emptyList());
+            property(ADDRESS).setDefault("");
+            property(PORT).setDefault(0);
+            property(CHECKS).setDefault(Collections.emptyList());
+        }
+
+        public Builder id(String id) {
+            property(ID).set(requireNonNull(id));
+            return this;
+        }
+
+        public Builder tags(List<String> tags) {
+            property(TAGS).set(
+                Collections.unmodifiableList(new ArrayList<>(tags)));
+            return this;
+        }
+
+        public Builder address(String address) {
+            property(ADDRESS).set(requireNonNull(address));
+            return this;
+        }
+
+        public Builder port(int port) {
+            if (port < 1 || port > 65535) {
+                throw new IllegalArgumentException("Invalid port: " + port);
+            }
+            property(PORT).set(port);
+            return this;
+        }
+
+        public Builder checks(List<ConsulCheck> checks) {
+            property(CHECKS).set(
+                Collections.unmodifiableList(new ArrayList<>(checks)));
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ConsulService build() {
+            return new ConsulService(
+                property(ID).get(),
+                property(NAME).get(),
+                (List<String>) property(TAGS).get(),
+                property(ADDRESS).get(),
+                property(PORT).get(),
+                (List<ConsulCheck>) property(CHECKS).get());
+        }
+
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public List<ConsulCheck> getChecks() {
+        return checks;
+    }
+
+    /**
+     * Returns a copy of this service with the given suffix appended to
+     * its name and ID.
+     */
+    ConsulService withSuffix(String suffix) {
+        return new ConsulService(id.isEmpty() ? id : id + suffix,
+            name + suffix, tags, address, port, checks);
+    }
+
+    void writeTo(ConsulJsonWriter writer) {
+        writer.beginObject()
+            .optional("id", id)
+            .name("name").value(name);
+        if (!tags.isEmpty()) {
+            writer.name("tags").value(tags);
+        }
+        writer.optional("address", address);
+        if (port > 0) {
+            writer.name("port").value(port);
+        }
+        if (!checks.isEmpty()) {
+            writer.name("checks").beginArray();
+            for (ConsulCheck check : checks) {
+                check.writeTo(writer);
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+    }
+
+}
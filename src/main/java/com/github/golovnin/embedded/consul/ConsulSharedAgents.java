@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A JVM-wide registry of agents shared by tests. An agent is started at
+ * most once per equivalent configuration (see below) and counts its
+ * references. When the last reference has been released, the agent is
+ * kept running for the linger time, so that the next test class can
+ * reuse it, and is stopped afterwards. The remaining agents are stopped
+ * concurrently when the JVM exits.
+ *
+ * <p>Two configurations are equivalent if they start the same agent. The
+ * consumers, the listeners and the node ID are ignored, and so are the
+ * ports of configurations created with
+ * {@link ConsulAgentConfig.Builder#randomPorts()}. A shared agent
+ * therefore delivers its output to the consumers of the configuration it
+ * has been started with. Use {@link ConsulAgentProcess#getConfig()} to
+ * get the ports of a shared agent.
+ *
+ * <p>The default linger time of 10 seconds can be changed with the
+ * system property {@value #LINGER_PROPERTY} (in milliseconds) or with
+ * {@link #setLinger(long, TimeUnit)}.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulSharedAgents {
+
+    public static final String LINGER_PROPERTY = "embedded.consul.shared.linger";
+
+    private static final Map<String, SharedAgent> AGENTS = new HashMap<>();
+
+    private static final Map<ConsulAgentProcess, SharedAgent> PROCESSES =
+        new IdentityHashMap<>();
+
+    private static final ScheduledExecutorService SCHEDULER =
+        Executors.newSingleThreadScheduledExecutor(
+            new ConsulThreadFactory("embedded-consul-shared"));
+
+    private static volatile long linger =
+        Long.getLong(LINGER_PROPERTY, TimeUnit.SECONDS.toMillis(10));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(
+            new Thread(ConsulSharedAgents::stopAll, "embedded-consul-shutdown"));
+    }
+
+    private ConsulSharedAgents() {
+        // NOP
+    }
+
+    /**
+     * Sets the time to keep an agent running after its last reference
+     * has been released.
+     */
+    public static void setLinger(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException(
+                "time may not be negative: " + time);
+        }
+        linger = unit.toMillis(time);
+    }
+
+    /**
+     * Returns the time to keep an agent running after its last reference
+     * has been released.
+     */
+    public static long getLinger(TimeUnit unit) {
+        return unit.convert(linger, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a running agent for the given configuration, started with
+     * the default {@link ConsulAgentStarter} if necessary.
+     *
+     * @see #acquire(ConsulAgentStarter, ConsulAgentConfig)
+     */
+    public static ConsulAgentProcess acquire(ConsulAgentConfig config)
+        throws IOException
+    {
+        return acquire(ConsulAgentStarter.getDefaultInstance(), config);
+    }
+
+    /**
+     * Returns a running agent for the given configuration. If no agent is
+     * running for an equivalent configuration, the agent is started using
+     * the given starter. Every call must be paired with a call to
+     * {@link #release(ConsulAgentProcess)}. The returned agent must not be
+     * stopped directly.
+     */
+    public static ConsulAgentProcess acquire(ConsulAgentStarter starter,
+        ConsulAgentConfig config) throws IOException
+    {
+        requireNonNull(starter, "starter may not be null");
+        String key = config.sharingKey();
+        SharedAgent agent;
+        synchronized (AGENTS) {
+            agent = AGENTS.computeIfAbsent(key, SharedAgent::new);
+            agent.references++;
+            if (agent.pendingStop != null) {
+                agent.pendingStop.cancel(false);
+                agent.pendingStop = null;
+            }
+        }
+        ConsulAgentProcess process;
+        try {
+            process = agent.start(starter, config);
+        } catch (IOException | RuntimeException e) {
+            synchronized (AGENTS) {
+                if (--agent.references == 0) {
+                    AGENTS.remove(key, agent);
+                }
+            }
+            throw e;
+        } finally {
+            // The ports reserved for an equivalent configuration which did
+            // not start the agent are not needed.
+            config.releaseUnclaimedPorts();
+        }
+        return process;
+    }
+
+    /**
+     * Releases a reference to the given agent obtained by
+     * {@link #acquire(ConsulAgentConfig)}.
+     *
+     * @throws IllegalArgumentException if the agent is not shared.
+     */
+    public static void release(ConsulAgentProcess process) {
+        SharedAgent agent;
+        synchronized (AGENTS) {
+            agent = PROCESSES.get(process);
+            if (agent == null) {
+                throw new IllegalArgumentException(
+                    "The Consul agent is not shared");
+            }
+            if (--agent.references > 0) {
+                return;
+            }
+            long delay = linger;
+            if (delay > 0) {
+                agent.pendingStop = SCHEDULER.schedule(
+                    () -> stopIfUnused(agent), delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        stopIfUnused(agent);
+    }
+
+    /**
+     * Returns the number of running shared agents.
+     */
+    public static int size() {
+        synchronized (AGENTS) {
+            return PROCESSES.size();
+        }
+    }
+
+    /**
+     * Stops all shared agents concurrently, regardless of their references.
+     */
+    public static void stopAll() {
+        List<ConsulCluster.Member> members = new ArrayList<>();
+        synchronized (AGENTS) {
+            for (SharedAgent agent : PROCESSES.values()) {
+                if (agent.pendingStop != null) {
+                    agent.pendingStop.cancel(false);
+                }
+                members.add(agent.member);
+            }
+            AGENTS.clear();
+            PROCESSES.clear();
+        }
+        ConsulCluster.stop(members);
+    }
+
+    private static void stopIfUnused(SharedAgent agent) {
+        synchronized (AGENTS) {
+            if (agent.references > 0 || !AGENTS.remove(agent.key, agent)) {
+                return;
+            }
+            PROCESSES.remove(agent.member.process);
+        }
+        ConsulCluster.stop(Collections.singletonList(agent.member));
+    }
+
+    private static final class SharedAgent {
+
+        final String key;
+        int references;
+        ScheduledFuture<?> pendingStop;
+        ConsulCluster.Member member;
+
+        SharedAgent(String key) {
+            this.key = key;
+        }
+
+        synchronized ConsulAgentProcess start(ConsulAgentStarter starter,
+            ConsulAgentConfig config) throws IOException
+        {
+            if (member == null) {
+                ConsulAgentExecutable executable = starter.prepare(config);
+                try {
+                    member = new ConsulCluster.Member(
+                        executable, executable.start());
+                } catch (IOException | RuntimeException e) {
+                    executable.stop();
+                    throw e;
+                }
+                synchronized (AGENTS) {
+                    PROCESSES.put(member.process, this);
+                }
+            }
+            return member.process;
+        }
+
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+
+/**
+ * Watches the output of a starting Consul agent and decides whether the
+ * agent is running, has reported a failure or has exited.
+ *
+ * <p>The end of the standard output stream is treated as the exit of the
+ * process, so that a dead agent is detected without waiting for the
+ * startup timeout.
+ *
+ * <p>The output is kept in a ring buffer. Once the agent is running,
+ * only the configured number of lines is retained for diagnostics, so
+ * that the memory used by a long-running agent stays constant.
+ *
+ * @author Andrej Golovnin
+ */
+final class ConsulStartupWatch {
+
+    enum State {
+
+        STARTING, RUNNING, FAILED, EXITED
+
+    }
+
+    private static final int MAX_REPORTED_LINES = 20;
+
+    private final String successMessage;
+    private final Set<String> failureMessages;
+    private final int history;
+    private ConsulLineBuffer lines;
+    private State state;
+    private String failure;
+    private int openStreams;
+    private long firstLineTime;
+
+    ConsulStartupWatch(String successMessage, Set<String> failureMessages,
+        int history)
+    {
+        this.successMessage = successMessage;
+        this.failureMessages = failureMessages;
+        this.history = history;
+        this.lines = new ConsulLineBuffer(
+            Math.max(history, MAX_REPORTED_LINES));
+        this.state = State.STARTING;
+        this.openStreams = 2;
+    }
+
+    IStreamProcessor stdout(IStreamProcessor destination) {
+        return new StreamWatch(destination, true);
+    }
+
+    IStreamProcessor stderr(IStreamProcessor destination) {
+        return new StreamWatch(destination, false);
+    }
+
+    /**
+     * Waits until the state of the agent is known or the given deadline
+     * ({@link System#nanoTime()}) is reached.
+     */
+    synchronized State awaitDecision(long deadline) throws InterruptedException {
+        long remaining;
+        while (state == State.STARTING
+            && (remaining = deadline - System.nanoTime()) > 0)
+        {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return state;
+    }
+
+    /**
+     * Waits until both output streams are closed, so that the last
+     * lines of a dying agent are available for the error message.
+     */
+    synchronized boolean awaitExit(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        while (openStreams > 0
+            && (remaining = deadline - System.nanoTime()) > 0)
+        {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return openStreams == 0;
+    }
+
+    synchronized boolean hasExited() {
+        return state == State.EXITED;
+    }
+
+    /**
+     * Returns the time ({@link System#nanoTime()}) when the first line
+     * was received or {@code 0}, if the agent has not printed anything.
+     */
+    synchronized long getFirstLineTime() {
+        return firstLineTime;
+    }
+
+    synchronized String getFailure() {
+        return failure;
+    }
+
+    synchronized String getLastLines() {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines.getLast(MAX_REPORTED_LINES)) {
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the retained lines of the output, the oldest line first.
+     */
+    synchronized List<String> getHistory() {
+        return lines.getLast(history);
+    }
+
+    private synchronized void onLine(String line, boolean stdout) {
+        lines.add(line);
+        if (state == State.RUNNING) {
+            return;
+        }
+        if (firstLineTime == 0) {
+            firstLineTime = System.nanoTime();
+        }
+        if (state == State.STARTING && stdout && line.contains(successMessage)) {
+            state = State.RUNNING;
+            if (lines.capacity() != history) {
+                ConsulLineBuffer retained = new ConsulLineBuffer(history);
+                for (String retainedLine : lines.getLast(history)) {
+                    retained.add(retainedLine);
+                }
+                lines = retained;
+            }
+            notifyAll();
+            return;
+        }
+        if (failure == null) {
+            for (String failureMessage : failureMessages) {
+                if (line.contains(failureMessage)) {
+                    failure = line.trim();
+                    if (state == State.STARTING) {
+                        state = State.FAILED;
+                    }
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized void onClosed(boolean stdout) {
+        openStreams--;
+        if (stdout) {
+            state = State.EXITED;
+        }
+        notifyAll();
+    }
+
+    private final class StreamWatch implements IStreamProcessor {
+
+        private final IStreamProcessor destination;
+        private final boolean stdout;
+
+        StreamWatch(IStreamProcessor destination, boolean stdout) {
+            this.destination = destination;
+            this.stdout = stdout;
+        }
+
+        @Override
+        public void process(String line) {
+            destination.process(line);
+            onLine(line, stdout);
+        }
+
+        @Override
+        public void onProcessed() {
+            destination.onProcessed();
+            onClosed(stdout);
+        }
+
+    }
+
+}
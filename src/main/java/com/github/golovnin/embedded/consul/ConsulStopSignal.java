@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.distribution.Platform;
+
+/**
+ * The signal sent to a Consul agent to stop it.
+ *
+ * @author Andrej Golovnin
+ * @see ConsulAgentConfig.Builder#stopSignal(ConsulStopSignal)
+ */
+public enum ConsulStopSignal {
+
+    /**
+     * Sends {@code SIGINT}. Client agents leave the cluster gracefully,
+     * unless {@code skip_leave_on_interrupt} is set.
+     */
+    INTERRUPT("INT"),
+
+    /**
+     * Sends {@code SIGTERM}. Agents leave the cluster only if
+     * {@code leave_on_terminate} is set.
+     */
+    TERMINATE("TERM"),
+
+    /**
+     * Sends {@code SIGKILL}. The agents are stopped immediately without
+     * leaving the cluster.
+     */
+    KILL("KILL");
+
+    private static final long KILL_TIMEOUT = 10;
+
+    private final String signal;
+
+    ConsulStopSignal(String signal) {
+        this.signal = signal;
+    }
+
+    /**
+     * Sends the signal to all given processes. {@code SIGTERM} and
+     * {@code SIGKILL} are sent using {@link ConsulProcessHandle} if
+     * available, otherwise and for {@code SIGINT} a single {@code kill}
+     * command is used. Returns {@code false} if the signal could not be
+     * sent, e.g. {@code SIGINT} on Windows.
+     */
+    boolean send(Collection<Long> pids) {
+        if (pids.isEmpty()) {
+            return true;
+        }
+        if (this != INTERRUPT && ConsulProcessHandle.isSupported()) {
+            for (Long pid : pids) {
+                ConsulProcessHandle handle = ConsulProcessHandle.of(pid);
+                if (handle != null) {
+                    handle.destroy(this == KILL);
+                }
+            }
+            return true;
+        }
+        if (Platform.detect() == Platform.Windows) {
+            return false;
+        }
+        List<String> command = new ArrayList<>(pids.size() + 3);
+        command.add("kill");
+        command.add("-s");
+        command.add(signal);
+        for (Long pid : pids) {
+            command.add(pid.toString());
+        }
+        try {
+            Process kill = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .start();
+            kill.getOutputStream().close();
+            kill.getInputStream().close();
+            return kill.waitFor(KILL_TIMEOUT, TimeUnit.SECONDS)
+                && kill.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -30,8 +30,6 @@
 
 package com.github.golovnin.embedded.consul;
 
-import java.util.concurrent.TimeUnit;
-
 import de.flapdoodle.embed.process.config.ISupportConfig;
 
 /**
@@ -39,10 +37,10 @@ import de.flapdoodle.embed.process.config.ISupportConfig;
  */
 final class ConsulSupportConfig implements ISupportConfig {
 
-    static final ISupportConfig INSTANCE = new ConsulSupportConfig();
+    private final long maxStopTimeoutMillis;
 
-    private ConsulSupportConfig() {
-        // NOP
+    ConsulSupportConfig(long maxStopTimeoutMillis) {
+        this.maxStopTimeoutMillis = maxStopTimeoutMillis;
     }
 
     @Override
@@ -62,7 +60,7 @@ final class ConsulSupportConfig implements ISupportConfig {
 
     @Override
     public long maxStopTimeoutMillis() {
-        return TimeUnit.SECONDS.toMillis(5);
+        return maxStopTimeoutMillis;
     }
 
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records when a Consul agent reached the {@link ConsulMilestone}s,
+ * relative to spawning the agent process.
+ *
+ * <p>The milestones are detected in the output of the agent as soon as
+ * the lines are read. The milestones checked by the built-in
+ * {@link ConsulReadiness} probes are also recorded when the probe first
+ * succeeds during the startup. Milestones which have been observed in
+ * neither way, e.g. because of the configured log level, are reported as
+ * unknown ({@code -1}).
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulTimeline {
+
+    private static final ConsulMilestone[] MILESTONES = ConsulMilestone.values();
+
+    private final long spawnTime;
+    private final AtomicLongArray times;
+    private volatile boolean complete;
+
+    ConsulTimeline(long spawnTime) {
+        this.spawnTime = spawnTime;
+        this.times = new AtomicLongArray(MILESTONES.length);
+        for (int i = 0; i < MILESTONES.length; i++) {
+            times.set(i, -1);
+        }
+    }
+
+    /**
+     * Returns the time from spawning the agent process until the milestone
+     * was reached or {@code -1}, if it has not been reached yet.
+     */
+    public long get(ConsulMilestone milestone, TimeUnit unit) {
+        long time = times.get(milestone.ordinal());
+        return time < 0 ? -1 : unit.convert(time - spawnTime, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isReached(ConsulMilestone milestone) {
+        return times.get(milestone.ordinal()) >= 0;
+    }
+
+    /**
+     * Records the milestone at the given {@link System#nanoTime()}, unless
+     * it has been recorded before.
+     */
+    void record(ConsulMilestone milestone, long nanoTime) {
+        times.compareAndSet(milestone.ordinal(), -1, nanoTime);
+    }
+
+    /**
+     * Records the milestones announced by a line of the agent's output.
+     */
+    void onLine(String line) {
+        if (complete) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean missing = false;
+        for (ConsulMilestone milestone : MILESTONES) {
+            if (milestone.isLogged() && !isReached(milestone)) {
+                if (milestone.matches(line)) {
+                    record(milestone, now);
+                } else {
+                    missing = true;
+                }
+            }
+        }
+        complete = !missing;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ConsulTimeline[");
+        for (ConsulMilestone milestone : MILESTONES) {
+            if (milestone.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(milestone).append('=');
+            long micros = get(milestone, TimeUnit.MICROSECONDS);
+            if (micros < 0) {
+                sb.append('-');
+            } else {
+                sb.append(micros / 1000.0).append(" ms");
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulAgentConfigTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJson() {
+        ConsulCheck ttl = new ConsulCheck.Builder("heartbeat")
+            .ttl(30, TimeUnit.SECONDS)
+            .build();
+        ConsulService service = new ConsulService.Builder("web")
+            .id("web-1")
+            .tags(Arrays.asList("primary", "v1"))
+            .port(8080)
+            .checks(Collections.singletonList(new ConsulCheck.Builder("alive")
+                .http("http://localhost:8080/health", 1, TimeUnit.SECONDS)
+                .timeout(500, TimeUnit.MILLISECONDS)
+                .build()))
+            .build();
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .raftMultiplier(1)
+            .statsdAddress("127.0.0.1:8125")
+            .rpcLimit(100.5, 10)
+            .acl("secret", "deny")
+            .services(Collections.singletonList(service))
+            .checks(Collections.singletonList(ttl))
+            .build();
+
+        Map<String, Object> json = ConsulJson.parseObject(config.toJson());
+        Map<String, Object> ports = (Map<String, Object>) json.get("ports");
+        assertEquals((long) config.getSerfLANPort(), ports.get("serf_lan"));
+        assertEquals(Boolean.TRUE, json.get("disable_update_check"));
+        assertEquals(1L, ((Map<String, Object>) json.get("performance"))
+            .get("raft_multiplier"));
+        assertEquals("127.0.0.1:8125", ((Map<String, Object>) json.get("telemetry"))
+            .get("statsd_address"));
+        Map<String, Object> limits = (Map<String, Object>) json.get("limits");
+        assertEquals(100.5, limits.get("rpc_rate"));
+        assertEquals(10L, limits.get("rpc_max_burst"));
+        assertEquals("dc1", json.get("acl_datacenter"));
+        assertEquals("secret", json.get("acl_master_token"));
+        assertEquals("deny", json.get("acl_default_policy"));
+
+        List<Map<String, Object>> services =
+            (List<Map<String, Object>>) json.get("services");
+        assertEquals(1, services.size());
+        Map<String, Object> web = services.get(0);
+        assertEquals("web-1", web.get("id"));
+        assertEquals("web", web.get("name"));
+        assertEquals(Arrays.asList("primary", "v1"), web.get("tags"));
+        assertEquals(8080L, web.get("port"));
+        Map<String, Object> alive =
+            ((List<Map<String, Object>>) web.get("checks")).get(0);
+        assertEquals("http://localhost:8080/health", alive.get("http"));
+        assertEquals("1000ms", alive.get("interval"));
+        assertEquals("500ms", alive.get("timeout"));
+
+        Map<String, Object> heartbeat =
+            ((List<Map<String, Object>>) json.get("checks")).get(0);
+        assertEquals("heartbeat", heartbeat.get("name"));
+        assertEquals("30000ms", heartbeat.get("ttl"));
+        assertFalse(heartbeat.containsKey("http"));
+    }
+
+    @Test
+    public void testDefaultJson() {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder().build();
+        Map<String, Object> json = ConsulJson.parseObject(config.toJson());
+        assertEquals(2, json.size());
+        assertSame(config.toJson(), config.toJson());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFastTestProfile() {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .fastTestProfile()
+            .build();
+        Map<String, Object> json = ConsulJson.parseObject(config.toJson());
+        assertEquals(1L, ((Map<String, Object>) json.get("performance"))
+            .get("raft_multiplier"));
+        assertEquals(Boolean.TRUE, json.get("disable_coordinates"));
+        assertEquals(Boolean.TRUE, json.get("skip_leave_on_interrupt"));
+        assertEquals("0s", json.get("check_update_interval"));
+
+        config = new ConsulAgentConfig.Builder()
+            .raftMultiplier(2)
+            .fastTestProfile()
+            .build();
+        json = ConsulJson.parseObject(config.toJson());
+        assertEquals(2L, ((Map<String, Object>) json.get("performance"))
+            .get("raft_multiplier"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCheckWithoutKind() {
+        new ConsulCheck.Builder("invalid").build();
+    }
+
+    @Test
+    public void testConfigFilesAreReused() throws IOException {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder().build();
+        String json = config.toJson();
+        File file = ConsulConfigFiles.acquire(json);
+        try {
+            assertSame(file, ConsulConfigFiles.acquire(json));
+            ConsulConfigFiles.release(json);
+            assertEquals(json, new String(
+                Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            if (new File("/dev/shm").canWrite()) {
+                assertTrue(file.getPath().startsWith("/dev/shm/"));
+                assertTrue(file.getParentFile().getName()
+                    .startsWith(ConsulConfigFiles.PREFIX));
+                assertTrue(new File(file.getParentFile(),
+                    ConsulConfigFiles.LOCK_FILE).isFile());
+            }
+            String other =
+                new ConsulAgentConfig.Builder().randomPorts().build().toJson();
+            assertNotEquals(file, ConsulConfigFiles.acquire(other));
+            ConsulConfigFiles.release(other);
+        } finally {
+            ConsulConfigFiles.release(json);
+        }
+    }
+
+    @Test
+    public void testDirectoriesOfDeadJVMsAreRemoved() throws IOException {
+        File root = Files.createTempDirectory("shm").toFile();
+        try {
+            // The lock of a dead JVM has been released.
+            File dead = new File(root, ConsulConfigFiles.PREFIX + "dead");
+            File creating = new File(root, ConsulConfigFiles.PREFIX + "new");
+            File alive = ConsulConfigFiles.createLockedDirectory(root);
+            assertTrue(dead.mkdir());
+            assertTrue(creating.mkdir());
+            assertTrue(new File(dead, ConsulConfigFiles.LOCK_FILE).createNewFile());
+            assertTrue(new File(dead, "config.json").createNewFile());
+
+            ConsulConfigFiles.removeDirectoriesOfDeadJVMs(root);
+
+            assertFalse(dead.exists());
+            assertTrue(creating.isDirectory());
+            assertTrue(alive.isDirectory());
+            assertTrue(new File(alive, ConsulConfigFiles.LOCK_FILE).isFile());
+        } finally {
+            for (File directory : root.listFiles()) {
+                for (File file : directory.listFiles()) {
+                    file.delete();
+                }
+                directory.delete();
+            }
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testReferencedConfigFilesAreNotEvicted() throws IOException {
+        String json = configWithService("referenced").toJson();
+        File file = ConsulConfigFiles.acquire(json);
+        try {
+            for (int i = 0; i <= ConsulConfigFiles.MAX_FILES; i++) {
+                String other = configWithService("evicted-" + i).toJson();
+                ConsulConfigFiles.acquire(other);
+                ConsulConfigFiles.release(other);
+            }
+            assertTrue(file.isFile());
+            assertTrue(ConsulConfigFiles.isCached(json));
+        } finally {
+            ConsulConfigFiles.release(json);
+        }
+        for (int i = 0; i < ConsulConfigFiles.MAX_FILES; i++) {
+            String other = configWithService("unreferenced-" + i).toJson();
+            ConsulConfigFiles.acquire(other);
+            ConsulConfigFiles.release(other);
+        }
+        assertFalse(ConsulConfigFiles.isCached(json));
+        assertFalse(file.isFile());
+    }
+
+    @Test
+    public void testSharingKey() {
+        ConsulAgentConfig first = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .build();
+        ConsulAgentConfig second = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .build();
+        ConsulAgentConfig other = new ConsulAgentConfig.Builder()
+            .datacenter("dc2")
+            .randomPorts()
+            .build();
+        try {
+            assertEquals(first.sharingKey(), second.sharingKey());
+            assertNotEquals(first.sharingKey(), other.sharingKey());
+            assertNotEquals(first.sharingKey(),
+                new ConsulAgentConfig.Builder().build().sharingKey());
+        } finally {
+            ConsulPortAllocator.release(first.getHttpPort());
+            ConsulPortAllocator.release(second.getHttpPort());
+            ConsulPortAllocator.release(other.getHttpPort());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSeedServices() {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .services(Collections.singletonList(
+                new ConsulService.Builder("api").build()))
+            .seed(new ConsulSeed.Builder()
+                .services(Collections.singletonList(
+                    new ConsulService.Builder("web").port(8080).build()))
+                .build())
+            .build();
+        List<Map<String, Object>> services = (List<Map<String, Object>>)
+            ConsulJson.parseObject(config.toJson()).get("services");
+        assertEquals(2, services.size());
+        assertEquals("api", services.get(0).get("name"));
+        assertEquals("web", services.get(1).get("name"));
+    }
+
+    private static ConsulAgentConfig configWithService(String name) {
+        return new ConsulAgentConfig.Builder()
+            .services(Collections.singletonList(
+                new ConsulService.Builder(name).build()))
+            .build();
+    }
+
+}
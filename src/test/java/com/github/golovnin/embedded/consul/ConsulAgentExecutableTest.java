@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulAgentExecutableTest {
+
+    @Test
+    public void testStartAsync() throws IOException {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .build();
+        ConsulAgentExecutable executable =
+            ConsulAgentStarter.getDefaultInstance().prepare(config);
+        try {
+            CompletableFuture<ConsulAgentProcess> future =
+                executable.startAsync();
+            ConsulAgentProcess process = future.join();
+            assertTrue(process.isProcessRunning());
+            executable.stopAsync().join();
+            assertTrue(!process.isProcessRunning());
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testCancelStartAsync() throws IOException {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .build();
+        ConsulAgentExecutable executable =
+            ConsulAgentStarter.getDefaultInstance().prepare(config);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<ConsulAgentProcess> future =
+                executable.startAsync(executor);
+            assertTrue(future.cancel(true));
+            try {
+                future.join();
+                fail("The future must be cancelled");
+            } catch (CancellationException e) {
+                // Expected
+            }
+        } finally {
+            executor.shutdown();
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testStartAll() throws IOException {
+        List<ConsulAgentConfig> configs = Arrays.asList(
+            new ConsulAgentConfig.Builder().randomPorts().build(),
+            new ConsulAgentConfig.Builder().randomPorts().build(),
+            new ConsulAgentConfig.Builder().randomPorts().build());
+        List<ConsulAgentProcess> processes =
+            ConsulAgentStarter.getDefaultInstance().startAll(configs);
+        try {
+            assertEquals(3, processes.size());
+            for (ConsulAgentProcess process : processes) {
+                assertTrue(process.isProcessRunning());
+            }
+        } finally {
+            for (ConsulAgentProcess process : processes) {
+                process.stop();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulAgentPoolTest {
+
+    @Test
+    public void testLeaseAndRelease() throws IOException {
+        try (
+            ConsulAgentPool pool = new ConsulAgentPool.Builder()
+                .size(1)
+                .leaseTimeout(2, TimeUnit.MINUTES)
+                .build()
+        ) {
+            ConsulAgentProcess first = pool.lease();
+            assertTrue(first.isProcessRunning());
+            ConsulHttp.of(first.getConfig()).put("/v1/kv/pool/key", "value");
+            assertEquals(1, pool.getLeasedCount());
+            pool.release(first);
+            assertEquals(0, pool.getLeasedCount());
+
+            ConsulAgentProcess second = pool.lease();
+            assertTrue(second.isProcessRunning());
+            assertNull(ConsulHttp.of(second.getConfig()).get("/v1/kv/pool/key"));
+            pool.release(second);
+
+            ConsulAgentPool.Statistics statistics = pool.getStatistics();
+            assertEquals(2, statistics.getHits() + statistics.getMisses());
+            assertEquals(0, statistics.getFailures());
+        }
+    }
+
+    @Test
+    public void testDeadIdleAgentIsDiscarded() throws Exception {
+        try (
+            ConsulAgentPool pool = new ConsulAgentPool.Builder()
+                .size(1)
+                .leaseTimeout(2, TimeUnit.MINUTES)
+                .build()
+        ) {
+            ConsulAgentProcess first = pool.lease();
+            pool.release(first);
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (pool.getIdleCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertEquals(1, pool.getIdleCount());
+            first.stop();
+
+            ConsulAgentProcess second = pool.lease();
+            assertNotSame(first, second);
+            assertTrue(second.isProcessRunning());
+            pool.release(second);
+        }
+    }
+
+    @Test
+    public void testCloseStopsReleasedAgents() throws IOException {
+        ConsulAgentProcess process;
+        try (
+            ConsulAgentPool pool = new ConsulAgentPool.Builder()
+                .size(1)
+                .leaseTimeout(2, TimeUnit.MINUTES)
+                .build()
+        ) {
+            process = pool.lease();
+            pool.release(process);
+        }
+        assertFalse(process.isProcessRunning());
+    }
+
+    @Test
+    public void testLeaseFailsFastIfAgentCannotBeStarted() {
+        IllegalStateException failure = new IllegalStateException("broken");
+        try (
+            ConsulAgentPool pool = new ConsulAgentPool.Builder()
+                .size(1)
+                .leaseTimeout(10, TimeUnit.MINUTES)
+                .configFactory(() -> {
+                    throw failure;
+                })
+                .build()
+        ) {
+            long start = System.nanoTime();
+            try {
+                pool.lease();
+                fail("IOException expected");
+            } catch (IOException e) {
+                assertSame(failure, e.getCause());
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+            assertTrue(pool.getStatistics().getFailures() >= 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseOfForeignProcess() throws IOException {
+        try (
+            ConsulAgentPool first = new ConsulAgentPool.Builder()
+                .size(1)
+                .build();
+            ConsulAgentPool second = new ConsulAgentPool.Builder()
+                .size(1)
+                .build()
+        ) {
+            second.release(first.lease());
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time needed to wipe the state of a running agent using
+ * {@link ConsulAgentProcess#reset()} with the time needed to stop and
+ * start the agent again.
+ *
+ * <p>Run with {@code java ... ConsulAgentResetBenchmark [rounds]}.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulAgentResetBenchmark {
+
+    private ConsulAgentResetBenchmark() {
+        // NOP
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .build();
+        ConsulAgentExecutable executable =
+            ConsulAgentStarter.getDefaultInstance().prepare(config);
+        try {
+            ConsulAgentProcess process = executable.start();
+            ConsulHttp http = ConsulHttp.of(process.getConfig());
+
+            long resetTime = 0;
+            for (int i = 0; i < rounds; i++) {
+                ConsulAgentResetTest.populate(http);
+                long start = System.nanoTime();
+                process.reset();
+                resetTime += System.nanoTime() - start;
+            }
+
+            long restartTime = 0;
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                process.stop();
+                process = executable.start();
+                restartTime += System.nanoTime() - start;
+            }
+            process.stop();
+
+            System.out.printf("Average reset time:   %8d us%n",
+                TimeUnit.NANOSECONDS.toMicros(resetTime / rounds));
+            System.out.printf("Average restart time: %8d us%n",
+                TimeUnit.NANOSECONDS.toMicros(restartTime / rounds));
+        } finally {
+            executable.stop();
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the requests sent by {@link ConsulAgentReset} against a fake
+ * Consul agent.
+ *
+ * @author Andrej Golovnin
+ */
+public class ConsulAgentResetRequestsTest {
+
+    private static final String TOKEN = "master-token";
+
+    private final Map<String, String> responses = new HashMap<>();
+
+    private ConsulHttpStub server;
+    private List<String> requests;
+    private List<String> tokens;
+
+    @Before
+    public void setUp() throws IOException {
+        requests = Collections.synchronizedList(new ArrayList<>());
+        tokens = Collections.synchronizedList(new ArrayList<>());
+        responses.put("/v1/agent/members",
+            "[{\"Name\":\"agent\"},{\"Name\":\"member\"}]");
+        responses.put("/v1/catalog/nodes",
+            "[{\"Node\":\"agent\"},{\"Node\":\"member\"},{\"Node\":\"external\"}]");
+        responses.put("/v1/catalog/node/agent",
+            "{\"Services\":{\"consul\":{},\"web\":{}}}");
+        responses.put("/v1/agent/services",
+            "{\"consul\":{},\"api\":{},\"configured\":{}}");
+        responses.put("/v1/agent/checks", "{\"serfHealth\":{},"
+            + "\"node-check\":{\"ServiceID\":\"\"},"
+            + "\"service:configured\":{\"ServiceID\":\"configured\"},"
+            + "\"service:api\":{\"ServiceID\":\"api\"}}");
+        server = new ConsulHttpStub();
+        server.handle("/", exchange -> {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            tokens.add(exchange.getRequestHeaders().getFirst("X-Consul-Token"));
+            String body = ConsulHttpStub.read(exchange);
+            String response = "GET".equals(method) ? responses.get(path) : "true";
+            if (response == null) {
+                response = "[]";
+            }
+            if (!"GET".equals(method)) {
+                requests.add(method + ' ' + path + ' ' + body);
+            }
+            ConsulHttpStub.respond(exchange, response);
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        new ConsulAgentReset(
+            new ConsulHttp("127.0.0.1", server.getPort(), TOKEN),
+            "agent",
+            Collections.singleton("configured"),
+            Collections.singleton("node-check")).reset();
+
+        assertTrue(requests.contains("DELETE /v1/kv/ "));
+        assertTrue(requests.contains(
+            "PUT /v1/catalog/deregister {\"Node\":\"external\"}"));
+        assertFalse(requests.contains(
+            "PUT /v1/catalog/deregister {\"Node\":\"member\"}"));
+        assertTrue(requests.contains(
+            "PUT /v1/catalog/deregister {\"Node\":\"agent\",\"ServiceID\":\"web\"}"));
+        assertTrue(requests.contains("PUT /v1/agent/service/deregister/api "));
+        assertTrue(requests.contains("PUT /v1/agent/check/deregister/service:api "));
+        assertEquals(5, requests.size());
+        assertFalse(tokens.isEmpty());
+        for (String token : tokens) {
+            assertEquals(TOKEN, token);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulAgentResetTest {
+
+    private static final int ITERATIONS = 5;
+
+    private ConsulAgentExecutable executable;
+    private ConsulAgentProcess process;
+    private ConsulHttp http;
+
+    @Before
+    public void setUp() throws IOException {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .build();
+        executable = ConsulAgentStarter.getDefaultInstance().prepare(config);
+        process = executable.start();
+        http = ConsulHttp.of(process.getConfig());
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            process.stop();
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        populate();
+
+        process.reset();
+
+        assertNull(http.get("/v1/kv/?recurse"));
+        assertTrue(ConsulJson.parseObjects(http.get("/v1/session/list")).isEmpty());
+        assertTrue(ConsulJson.parseObjects(http.get("/v1/query")).isEmpty());
+        Map<String, Object> services =
+            ConsulJson.parseObject(http.get("/v1/agent/services"));
+        assertFalse(services.containsKey("test-service"));
+        List<Map<String, Object>> nodes =
+            ConsulJson.parseObjects(http.get("/v1/catalog/nodes"));
+        assertEquals(1, nodes.size());
+        assertEquals(process.getConfig().getNode(), nodes.get(0).get("Node"));
+        assertTrue(process.isProcessRunning());
+    }
+
+    @Test
+    public void testRepeatedReset() throws IOException {
+        for (int i = 0; i < ITERATIONS; i++) {
+            populate();
+            process.reset();
+            assertNull(http.get("/v1/kv/?recurse"));
+            assertEquals(1,
+                ConsulJson.parseObjects(http.get("/v1/catalog/nodes")).size());
+        }
+        assertTrue(process.isProcessRunning());
+    }
+
+    private void populate() throws IOException {
+        populate(http);
+    }
+
+    static void populate(ConsulHttp http) throws IOException {
+        for (int i = 0; i < 100; i++) {
+            http.put("/v1/kv/test/key" + i, "value" + i);
+        }
+        http.put("/v1/agent/service/register",
+            "{\"ID\":\"test-service\",\"Name\":\"test-service\",\"Port\":8080}");
+        http.put("/v1/catalog/register",
+            "{\"Node\":\"external-node\",\"Address\":\"10.0.0.1\","
+            + "\"Service\":{\"Service\":\"external\",\"Port\":80}}");
+        http.put("/v1/session/create", "{\"Name\":\"test-session\"}");
+        http.put("/v1/query",
+            "{\"Name\":\"test-query\",\"Service\":{\"Service\":\"test-service\"}}");
+    }
+
+}
@@ -31,9 +31,17 @@
 package com.github.golovnin.embedded.consul;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -41,8 +49,13 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Andrej Golovnin
@@ -90,7 +103,17 @@ public class ConsulAgentStarterTest {
         try {
             ConsulAgentProcess process = executable.start();
             assertTrue(process.isProcessRunning());
+            assertEquals(config.getHttpPort(), process.getConfig().getHttpPort());
+            assertTrue(ConsulPortAllocator.isReserved(config.getHttpPort()));
             process.stop();
+            assertFalse(ConsulPortAllocator.isReserved(config.getHttpPort()));
+
+            // A restart reserves the same block again.
+            process = executable.start();
+            assertEquals(config.getHttpPort(), process.getConfig().getHttpPort());
+            assertTrue(ConsulPortAllocator.isReserved(config.getHttpPort()));
+            process.stop();
+            assertFalse(ConsulPortAllocator.isReserved(config.getHttpPort()));
         } finally {
             executable.stop();
         }
@@ -113,6 +136,98 @@ public class ConsulAgentStarterTest {
         }
     }
 
+    @Test
+    public void testReadiness() throws IOException {
+        for (ConsulReadiness readiness : ConsulReadiness.values()) {
+            ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+                .randomPorts()
+                .readiness(readiness)
+                .logLevel(logLevel)
+                .build();
+            ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+            ConsulAgentExecutable executable = starter.prepare(config);
+            try {
+                ConsulAgentProcess process = executable.start();
+                assertTrue(process.isProcessRunning());
+                assertTrue(process.getTimeToReady(TimeUnit.NANOSECONDS)
+                    >= process.getReadinessLatency(TimeUnit.NANOSECONDS));
+                if (readiness != ConsulReadiness.LOG_LINE) {
+                    ConsulHttp.of(config).put("/v1/kv/readiness", "ready");
+                }
+                process.stop();
+            } finally {
+                executable.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testFailingReadinessProbe() throws IOException {
+        IllegalStateException failure = new IllegalStateException("broken");
+        AtomicReference<ConsulAgentConfig> probed = new AtomicReference<>();
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .readiness(c -> {
+                probed.set(c);
+                throw failure;
+            })
+            .logLevel(logLevel)
+            .build();
+        ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+        ConsulAgentExecutable executable = starter.prepare(config);
+        try {
+            executable.start();
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertSame(failure, e.getCause());
+        } finally {
+            executable.stop();
+        }
+        // The agent has been stopped.
+        try {
+            ConsulHttp.of(probed.get()).get("/v1/status/leader");
+            fail("IOException expected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testFailFastOnPortCollision() throws IOException {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .logLevel(logLevel)
+            .build();
+        ConsulAgentConfig collidingConfig = new ConsulAgentConfig.Builder()
+            .httpPort(config.getHttpPort())
+            .dnsPort(config.getDnsPort())
+            .serfLANPort(config.getSerfLANPort())
+            .serfWANPort(config.getSerfWANPort())
+            .serverPort(config.getServerPort())
+            .startupTimeout(60, TimeUnit.SECONDS)
+            .logLevel(logLevel)
+            .build();
+        ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+        ConsulAgentExecutable executable = starter.prepare(config);
+        ConsulAgentExecutable collidingExecutable =
+            starter.prepare(collidingConfig);
+        try {
+            ConsulAgentProcess process = executable.start();
+            long start = System.nanoTime();
+            try {
+                collidingExecutable.start();
+                fail("The agent must not start when its ports are in use");
+            } catch (IOException e) {
+                long elapsed = System.nanoTime() - start;
+                assertTrue(elapsed < TimeUnit.SECONDS.toNanos(10));
+            }
+            process.stop();
+        } finally {
+            collidingExecutable.stop();
+            executable.stop();
+        }
+    }
+
     @Test
     public void testOutputConsumer() throws IOException {
         AtomicBoolean b = new AtomicBoolean();
@@ -132,4 +247,208 @@ public class ConsulAgentStarterTest {
         assertTrue(b.get());
     }
 
+    @Test
+    public void testSlowOutputConsumer() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConsulAgentConfig slowConfig = new ConsulAgentConfig.Builder()
+            .logLevel(logLevel)
+            .randomPorts()
+            .outConsumer(line -> {
+                if (line.contains("Version:")) {
+                    stalled.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            })
+            .build();
+        ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+        ConsulAgentExecutable slow = starter.prepare(slowConfig);
+        List<ConsulAgentExecutable> others = new ArrayList<>();
+        try {
+            slow.start();
+            assertTrue(stalled.await(1, TimeUnit.MINUTES));
+            // Enough agents to share a reader thread with the slow agent.
+            for (int i = 0; i < ConsulOutputReactor.THREADS; i++) {
+                ConsulAgentExecutable other = starter.prepare(
+                    new ConsulAgentConfig.Builder()
+                        .logLevel(logLevel)
+                        .randomPorts()
+                        .build());
+                others.add(other);
+                assertTrue(other.start().isProcessRunning());
+            }
+        } finally {
+            release.countDown();
+            others.forEach(ConsulAgentExecutable::stop);
+            slow.stop();
+        }
+    }
+
+    @Test
+    public void testLifecycleListener() throws IOException {
+        ConsulLifecycleStatistics statistics = new ConsulLifecycleStatistics();
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .logLevel(logLevel)
+            .randomPorts()
+            .build();
+        ConsulAgentStarter starter = ConsulAgentStarter.getInstance(
+            ConsulRuntimeConfig.withListener(statistics));
+        ConsulAgentExecutable executable = starter.prepare(config);
+        try {
+            ConsulAgentProcess process = executable.start();
+            assertTrue(process.isProcessRunning());
+            process.stop();
+        } finally {
+            executable.stop();
+        }
+        for (ConsulLifecyclePhase phase : new ConsulLifecyclePhase[] {
+            ConsulLifecyclePhase.RESOLVE,
+            ConsulLifecyclePhase.CONFIG_WRITE,
+            ConsulLifecyclePhase.SPAWN,
+            ConsulLifecyclePhase.FIRST_OUTPUT,
+            ConsulLifecyclePhase.READY,
+            ConsulLifecyclePhase.STOP
+        }) {
+            assertEquals(phase.name(), 1, statistics.getSummary(phase).getCount());
+        }
+    }
+
+    @Test
+    public void testLogListener() throws IOException {
+        List<ConsulLogEvent> events = new CopyOnWriteArrayList<>();
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .logLevel(logLevel)
+            .logListener(events::add, ConsulLogLevel.TRACE, "agent")
+            .randomPorts()
+            .build();
+        ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+        ConsulAgentExecutable executable = starter.prepare(config);
+        try {
+            ConsulAgentProcess process = executable.start();
+            process.stop();
+        } finally {
+            executable.stop();
+        }
+        if (logLevel.compareTo(ConsulLogLevel.INFO) <= 0) {
+            assertFalse(events.isEmpty());
+        }
+        for (ConsulLogEvent event : events) {
+            assertTrue(event.getLevel().compareTo(logLevel) >= 0);
+            assertTrue(event.getModule().startsWith("agent"));
+        }
+    }
+
+    @Test
+    public void testTimeline() throws IOException {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .logLevel(logLevel)
+            .readiness(ConsulReadiness.LEADER_ELECTED)
+            .randomPorts()
+            .build();
+        ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+        ConsulAgentExecutable executable = starter.prepare(config);
+        try {
+            ConsulAgentProcess process = executable.start();
+            ConsulTimeline timeline = process.timeline();
+            assertTrue(timeline.isReached(ConsulMilestone.RUNNING));
+            assertTrue(timeline.isReached(ConsulMilestone.LEADER_ELECTED));
+            assertTrue(timeline.isReached(ConsulMilestone.READY));
+            assertTrue(timeline.get(ConsulMilestone.RUNNING, TimeUnit.NANOSECONDS)
+                <= timeline.get(ConsulMilestone.READY, TimeUnit.NANOSECONDS));
+            process.stop();
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testStopAll() throws IOException {
+        ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+        List<ConsulAgentConfig> configs = Arrays.asList(
+            new ConsulAgentConfig.Builder()
+                .logLevel(logLevel)
+                .stopSignal(ConsulStopSignal.KILL)
+                .randomPorts()
+                .build(),
+            new ConsulAgentConfig.Builder()
+                .logLevel(logLevel)
+                .stopSignal(ConsulStopSignal.TERMINATE)
+                .stopTimeout(1, TimeUnit.SECONDS)
+                .randomPorts()
+                .build());
+        List<ConsulAgentProcess> processes = starter.startAll(configs);
+        ConsulAgentProcess.stopAll(processes);
+        for (ConsulAgentProcess process : processes) {
+            assertFalse(process.isProcessRunning());
+        }
+    }
+
+    @Test
+    public void testSharedAgents() throws IOException {
+        long linger = ConsulSharedAgents.getLinger(TimeUnit.MILLISECONDS);
+        ConsulSharedAgents.setLinger(0, TimeUnit.MILLISECONDS);
+        try {
+            ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+                .logLevel(logLevel)
+                .randomPorts()
+                .build();
+            ConsulAgentConfig equivalentConfig = new ConsulAgentConfig.Builder()
+                .logLevel(logLevel)
+                .randomPorts()
+                .build();
+            ConsulAgentProcess process = ConsulSharedAgents.acquire(config);
+            try {
+                assertSame(process, ConsulSharedAgents.acquire(equivalentConfig));
+                assertFalse(ConsulPortAllocator.isReserved(
+                    equivalentConfig.getHttpPort()));
+                ConsulSharedAgents.release(process);
+                assertTrue(process.isProcessRunning());
+            } finally {
+                ConsulSharedAgents.release(process);
+            }
+            assertFalse(process.isProcessRunning());
+        } finally {
+            ConsulSharedAgents.setLinger(linger, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testSeed() throws IOException {
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.put("seed/" + i, String.valueOf(i));
+        }
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .logLevel(logLevel)
+            .randomPorts()
+            .seed(new ConsulSeed.Builder()
+                .entries(entries)
+                .services(Collections.singletonList(
+                    new ConsulService.Builder("seeded").port(8080).build()))
+                .build())
+            .build();
+        ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+        ConsulAgentExecutable executable = starter.prepare(config);
+        try {
+            ConsulAgentProcess process = executable.start();
+            ConsulClient client = new ConsulClient(process);
+            assertEquals(entries.size(), client.getAll("seed/").size());
+
+            // The reset restores the seed.
+            client.put("other", "value");
+            process.reset();
+            assertEquals(entries.size(), client.getAll("seed/").size());
+            assertNull(client.get("other"));
+            assertTrue(ConsulJson.parseObject(ConsulHttp.of(config)
+                .get("/v1/agent/services")).containsKey("seeded"));
+            process.stop();
+        } finally {
+            executable.stop();
+        }
+    }
+
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpServer;
+import de.flapdoodle.embed.process.config.store.IPackageResolver;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.extract.IExtractedFileSet;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulArtifactStoreTest {
+
+    private static final byte[] BINARY =
+        "#!/bin/sh\necho consul\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] ARCHIVE = zip(BINARY);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Distribution distribution =
+        Distribution.detectFor(ConsulVersion.V1_2_3);
+
+    private final IPackageResolver resolver = new ConsulPackageResolver();
+
+    @Test
+    public void testDownloadFromLocalMirror() throws IOException {
+        File mirror = createMirror(ConsulChecksums.toHex(
+            ConsulChecksums.newDigest().digest(ARCHIVE)));
+        File cache = folder.newFolder("cache");
+        IArtifactStore store = new ConsulArtifactStoreBuilder()
+            .mirror(mirror.getAbsolutePath())
+            .cacheDir(cache.getAbsolutePath())
+            .offline(false)
+            .build();
+
+        assertTrue(store.checkDistribution(distribution));
+        File archive = new File(cache, resolver.getPath(distribution));
+        assertArrayEquals(ARCHIVE, Files.readAllBytes(archive.toPath()));
+        assertNotNull(ConsulChecksums.trustedDigest(archive));
+
+        // The second check must be served from the cache.
+        assertTrue(new File(mirror, resolver.getPath(distribution)).delete());
+        assertTrue(store.checkDistribution(distribution));
+    }
+
+    @Test
+    public void testDownloadFromURL() throws IOException {
+        File mirror = createMirror(ConsulChecksums.toHex(
+            ConsulChecksums.newDigest().digest(ARCHIVE)));
+        HttpServer server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/consul/", exchange -> {
+            File file = new File(mirror, exchange.getRequestURI().getPath()
+                .substring("/consul/".length()));
+            byte[] body = Files.readAllBytes(file.toPath());
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            File cache = folder.newFolder("cache");
+            // Uses the default proxy factory, which returns no proxy.
+            IArtifactStore store = new ConsulArtifactStoreBuilder()
+                .mirror("http://127.0.0.1:" + server.getAddress().getPort()
+                    + "/consul")
+                .cacheDir(cache.getAbsolutePath())
+                .offline(false)
+                .build();
+            assertTrue(store.checkDistribution(distribution));
+            assertArrayEquals(ARCHIVE, Files.readAllBytes(
+                new File(cache, resolver.getPath(distribution)).toPath()));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testChecksumMismatch() throws IOException {
+        File mirror = createMirror(
+            "0000000000000000000000000000000000000000000000000000000000000000");
+        File cache = folder.newFolder("cache");
+        IArtifactStore store = new ConsulArtifactStoreBuilder()
+            .mirror(mirror.getAbsolutePath())
+            .cacheDir(cache.getAbsolutePath())
+            .offline(false)
+            .build();
+        try {
+            store.checkDistribution(distribution);
+            fail("The archive must be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(!new File(cache, resolver.getPath(distribution)).exists());
+    }
+
+    @Test
+    public void testModifiedArchiveIsVerifiedAgain() throws IOException {
+        File mirror = createMirror(ConsulChecksums.toHex(
+            ConsulChecksums.newDigest().digest(ARCHIVE)));
+        File cache = folder.newFolder("cache");
+        IArtifactStore store = new ConsulArtifactStoreBuilder()
+            .mirror(mirror.getAbsolutePath())
+            .cacheDir(cache.getAbsolutePath())
+            .offline(false)
+            .build();
+        assertTrue(store.checkDistribution(distribution));
+
+        File archive = new File(cache, resolver.getPath(distribution));
+        Files.write(archive.toPath(), "corrupted".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(store.checkDistribution(distribution));
+        assertArrayEquals(ARCHIVE, Files.readAllBytes(archive.toPath()));
+    }
+
+    @Test
+    public void testOfflineCacheMiss() throws IOException {
+        IArtifactStore store = new ConsulArtifactStoreBuilder()
+            .mirror("http://localhost:1/consul/")
+            .cacheDir(folder.newFolder("cache").getAbsolutePath())
+            .offline(true)
+            .build();
+        long start = System.nanoTime();
+        try {
+            store.checkDistribution(distribution);
+            fail("The offline mode must not download anything");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("offline"));
+        }
+        assertTrue(System.nanoTime() - start < 1000000000L);
+    }
+
+    @Test
+    public void testExtractOnce() throws IOException {
+        File mirror = createMirror(ConsulChecksums.toHex(
+            ConsulChecksums.newDigest().digest(ARCHIVE)));
+        File cache = folder.newFolder("cache");
+        IArtifactStore store = newStore(mirror, cache);
+        assertTrue(store.checkDistribution(distribution));
+        IExtractedFileSet files = store.extractFileSet(distribution);
+        File executable = executable(files);
+        assertArrayEquals(BINARY, Files.readAllBytes(executable.toPath()));
+        assertTrue(executable.canExecute());
+
+        // Neither the archive nor the mirror are needed any more.
+        assertTrue(new File(cache, resolver.getPath(distribution)).delete());
+        assertTrue(new File(mirror, resolver.getPath(distribution)).delete());
+        IArtifactStore other = newStore(mirror, cache);
+        assertTrue(other.checkDistribution(distribution));
+        files = other.extractFileSet(distribution);
+        assertEquals(executable, executable(files));
+
+        store.removeFileSet(distribution, files);
+        assertTrue(executable.isFile());
+    }
+
+    @Test
+    public void testConcurrentExtraction() throws Exception {
+        File mirror = createMirror(ConsulChecksums.toHex(
+            ConsulChecksums.newDigest().digest(ARCHIVE)));
+        File cache = folder.newFolder("cache");
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<File>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    IArtifactStore store = newStore(mirror, cache);
+                    assertTrue(store.checkDistribution(distribution));
+                    IExtractedFileSet files = store.extractFileSet(distribution);
+                    return executable(files);
+                }));
+            }
+            for (Future<File> future : futures) {
+                assertArrayEquals(BINARY,
+                    Files.readAllBytes(future.get().toPath()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private IArtifactStore newStore(File mirror, File cache) {
+        return new ConsulArtifactStoreBuilder()
+            .mirror(mirror.getAbsolutePath())
+            .cacheDir(cache.getAbsolutePath())
+            .offline(false)
+            .build();
+    }
+
+    private static File executable(IExtractedFileSet files) {
+        return new File(files.baseDir(), files.executable().getPath());
+    }
+
+    private static byte[] zip(byte[] binary) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("consul"));
+            zip.write(binary);
+            zip.closeEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private File createMirror(String digest) throws IOException {
+        File mirror = folder.newFolder("mirror");
+        String path = resolver.getPath(distribution);
+        File archive = new File(mirror, path);
+        assertTrue(archive.getParentFile().mkdirs());
+        Files.write(archive.toPath(), ARCHIVE);
+        String version = distribution.getVersion().asInDownloadPath();
+        String sums = digest + "  "
+            + path.substring(path.lastIndexOf('/') + 1) + "\n";
+        Files.write(new File(mirror,
+            version + "/consul_" + version + "_SHA256SUMS").toPath(),
+            sums.getBytes(StandardCharsets.US_ASCII));
+        assertEquals(archive.getParentFile(), new File(mirror, version));
+        return mirror;
+    }
+
+}
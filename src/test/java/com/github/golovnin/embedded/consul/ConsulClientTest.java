@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulClientTest {
+
+    private ConsulHttpStub server;
+    private List<String> transactions;
+
+    @Before
+    public void setUp() throws IOException {
+        transactions = Collections.synchronizedList(new ArrayList<>());
+        server = new ConsulHttpStub();
+        server.handle("/v1/txn", exchange -> {
+            transactions.add(ConsulHttpStub.read(exchange));
+            ConsulHttpStub.respond(exchange, "{\"Results\":[],\"Errors\":null}");
+        });
+        server.handle("/v1/kv/", exchange -> ConsulHttpStub.respond(exchange,
+            "[{\"Key\":\"app/a\",\"Value\":\"MQ==\"},{\"Key\":\"app/b\",\"Value\":null}]"));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPutAllIsChunked() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 150; i++) {
+            entries.put("key/" + i, "value-" + i);
+        }
+        client().putAll(entries);
+        assertEquals(3, transactions.size());
+        int operations = 0;
+        for (String body : transactions) {
+            List<Object> ops = (List<Object>) ConsulJson.parse(body);
+            assertTrue(ops.size() <= ConsulClient.MAX_TXN_OPERATIONS);
+            operations += ops.size();
+        }
+        assertEquals(150, operations);
+    }
+
+    @Test
+    public void testGetAll() throws IOException {
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("app/a", "1");
+        expected.put("app/b", "");
+        assertEquals(expected, client().getAll("app/"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTxn() {
+        String body = ConsulClient.txn(Arrays.asList(
+            new AbstractMap.SimpleEntry<>("a \"b\"", "\u00fc")));
+        Map<String, Object> kv = (Map<String, Object>)
+            ((List<Map<String, Object>>) ConsulJson.parse(body)).get(0).get("KV");
+        assertEquals("set", kv.get("Verb"));
+        assertEquals("a \"b\"", kv.get("Key"));
+        assertEquals("w7w=", kv.get("Value"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCatalogRegistration() {
+        ConsulService service = new ConsulService.Builder("web")
+            .id("web-1")
+            .tags(Arrays.asList("a", "b"))
+            .port(8080)
+            .build();
+        Map<String, Object> json = ConsulJson.parseObject(
+            ConsulClient.catalogRegistration("node-1", "10.0.0.1", service));
+        assertEquals("node-1", json.get("Node"));
+        assertEquals("10.0.0.1", json.get("Address"));
+        Map<String, Object> registered = (Map<String, Object>) json.get("Service");
+        assertEquals("web", registered.get("Service"));
+        assertEquals("web-1", registered.get("ID"));
+        assertEquals(Arrays.asList("a", "b"), registered.get("Tags"));
+        assertEquals(8080L, ((Number) registered.get("Port")).longValue());
+    }
+
+    private ConsulClient client() {
+        return new ConsulClient(
+            new ConsulHttp("127.0.0.1", server.getPort()), 2);
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+@ExtendWith(ConsulExtension.class)
+class ConsulExtensionTest {
+
+    private static ConsulNamespace classNamespace;
+
+    private static ConsulNamespace methodNamespace;
+
+    private static String serviceId;
+
+    @BeforeAll
+    static void setUp(ConsulNamespace namespace) {
+        classNamespace = namespace;
+    }
+
+    @Test
+    void testParametersAreInjected(ConsulNamespace namespace,
+        ConsulAgentProcess process) throws IOException
+    {
+        assertSame(process, namespace.getProcess());
+        assertSame(classNamespace.getProcess(), process);
+        assertNotEquals(classNamespace.getId(), namespace.getId());
+        assertTrue(process.isProcessRunning());
+        namespace.put("key", "value");
+        assertEquals("value", namespace.get("key"));
+        serviceId = namespace.register(new ConsulService.Builder("web")
+            .port(8080)
+            .build());
+        methodNamespace = namespace;
+    }
+
+    @AfterAll
+    static void testNamespaceIsClearedAfterTest(ConsulNamespace namespace)
+        throws IOException
+    {
+        assertSame(classNamespace, namespace);
+        assertNotNull(methodNamespace);
+        assertNull(methodNamespace.get("key"));
+        ConsulHttp http = ConsulHttp.of(namespace.getProcess().getConfig());
+        assertFalse(http.get("/v1/agent/services").contains(serviceId));
+    }
+
+}
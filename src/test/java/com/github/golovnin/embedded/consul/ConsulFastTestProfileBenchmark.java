@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the plain {@code -dev} agent with an agent using
+ * {@link ConsulAgentConfig.Builder#fastTestProfile()}: the time from
+ * spawning the agent until a leader is elected, the latency of a KV
+ * write/read round trip and the time to stop the agent.
+ *
+ * <p>Run with {@code java ... ConsulFastTestProfileBenchmark [rounds]}.
+ *
+ * @author Andrej Golovnin
+ */
+public final class ConsulFastTestProfileBenchmark {
+
+    private static final int ROUND_TRIPS = 200;
+
+    private ConsulFastTestProfileBenchmark() {
+        // NOP
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        ConsulAgentStarter starter = ConsulAgentStarter.getDefaultInstance();
+        // Warm up the artifact cache and the JIT.
+        run(starter, false, 2);
+        run(starter, true, 2);
+        print("dev", run(starter, false, rounds));
+        print("dev + fastTestProfile", run(starter, true, rounds));
+    }
+
+    private static long[][] run(ConsulAgentStarter starter, boolean fast,
+        int rounds) throws IOException
+    {
+        long[][] results = new long[3][rounds];
+        for (int i = 0; i < rounds; i++) {
+            ConsulAgentConfig.Builder builder = new ConsulAgentConfig.Builder()
+                .readiness(ConsulReadiness.LEADER_ELECTED)
+                .logLevel(ConsulLogLevel.ERR)
+                .randomPorts();
+            if (fast) {
+                builder.fastTestProfile();
+            }
+            ConsulAgentConfig config = builder.build();
+            ConsulAgentExecutable executable = starter.prepare(config);
+            try {
+                ConsulAgentProcess process = executable.start();
+                results[0][i] = process.getTimeToReady(TimeUnit.MICROSECONDS);
+
+                ConsulHttp http = ConsulHttp.of(process.getConfig());
+                long start = System.nanoTime();
+                for (int j = 0; j < ROUND_TRIPS; j++) {
+                    http.put("/v1/kv/benchmark", "value-" + j);
+                    http.get("/v1/kv/benchmark?raw");
+                }
+                results[1][i] = TimeUnit.NANOSECONDS.toMicros(
+                    System.nanoTime() - start) / ROUND_TRIPS;
+
+                start = System.nanoTime();
+                process.stop();
+                results[2][i] = TimeUnit.NANOSECONDS.toMicros(
+                    System.nanoTime() - start);
+            } finally {
+                executable.stop();
+            }
+        }
+        return results;
+    }
+
+    private static void print(String name, long[][] results) {
+        System.out.printf("%-24s ready p50 %8.1f ms  KV round trip p50 %6.2f ms"
+            + "  stop p50 %8.1f ms%n", name, median(results[0]) / 1000.0,
+            median(results[1]) / 1000.0, median(results[2]) / 1000.0);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+}
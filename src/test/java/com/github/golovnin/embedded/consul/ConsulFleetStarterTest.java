@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulFleetStarterTest {
+
+    @Test
+    public void testFleet() throws IOException {
+        ConsulFleetStarter starter = new ConsulFleetStarter.Builder()
+            .clients(5)
+            .batchSize(2)
+            .build();
+        try (ConsulFleet fleet = starter.start()) {
+            assertEquals(5, fleet.getClients().size());
+            for (ConsulAgentProcess client : fleet.getClients()) {
+                assertTrue(client.isProcessRunning());
+            }
+            assertEquals(6, ConsulCluster.countAliveMembers(
+                fleet.getServer().getConfig()));
+            assertTrue(fleet.getTimeToJoined(TimeUnit.MILLISECONDS) > 0);
+            if (new File("/proc/self").isDirectory()) {
+                assertTrue(fleet.getResidentSetSize() > 0);
+                assertTrue(fleet.getCpuTime(TimeUnit.NANOSECONDS) >= 0);
+            } else {
+                assertEquals(-1, fleet.getResidentSetSize());
+                assertEquals(-1, fleet.getCpuTime(TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+
+}
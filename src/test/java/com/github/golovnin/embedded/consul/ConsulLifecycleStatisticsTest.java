@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulLifecycleStatisticsTest {
+
+    @Test
+    public void testSummary() {
+        ConsulLifecycleStatistics statistics = new ConsulLifecycleStatistics();
+        for (int i = 100; i >= 1; i--) {
+            statistics.onPhase(ConsulLifecyclePhase.SPAWN, i);
+        }
+        ConsulLifecycleStatistics.Summary summary =
+            statistics.getSummary(ConsulLifecyclePhase.SPAWN);
+        assertEquals(100, summary.getCount());
+        assertEquals(1, summary.getMin());
+        assertEquals(50, summary.getP50());
+        assertEquals(99, summary.getP99());
+        assertEquals(100, summary.getMax());
+        assertEquals(0, statistics.getSummary(ConsulLifecyclePhase.STOP).getCount());
+    }
+
+    @Test
+    public void testPercentilesUseLastSamples() {
+        ConsulLifecycleStatistics statistics = new ConsulLifecycleStatistics(10);
+        for (int i = 1; i <= 1000; i++) {
+            statistics.onPhase(ConsulLifecyclePhase.READY, i);
+        }
+        ConsulLifecycleStatistics.Summary summary =
+            statistics.getSummary(ConsulLifecyclePhase.READY);
+        assertEquals(1000, summary.getCount());
+        assertEquals(1, summary.getMin());
+        assertEquals(995, summary.getP50());
+        assertEquals(1000, summary.getP99());
+        assertEquals(1000, summary.getMax());
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulLogParserTest {
+
+    private final List<ConsulLogEvent> events = new ArrayList<>();
+
+    @Test
+    public void testTextFormat() {
+        ConsulLogParser parser = new ConsulLogParser(events::add,
+            ConsulLogLevel.TRACE);
+        parser.accept("==> Starting Consul agent...\n");
+        parser.accept("    2018/09/17 12:00:00 [INFO] serf: EventMemberJoin: node 127.0.0.1\n");
+        parser.accept("    2018/09/17 12:00:01 [ERR] agent: failed to sync remote state: No cluster leader\n");
+        parser.accept("\n");
+        assertEquals(2, events.size());
+
+        ConsulLogEvent join = events.get(0);
+        assertEquals("2018/09/17 12:00:00", join.getTimestamp());
+        assertEquals(ConsulLogLevel.INFO, join.getLevel());
+        assertEquals("serf", join.getModule());
+        assertEquals("EventMemberJoin: node 127.0.0.1", join.getMessage());
+        assertTrue(join.getFields().isEmpty());
+
+        ConsulLogEvent error = events.get(1);
+        assertEquals(ConsulLogLevel.ERR, error.getLevel());
+        assertEquals("agent", error.getModule());
+        assertEquals("failed to sync remote state: No cluster leader",
+            error.getMessage());
+    }
+
+    @Test
+    public void testJsonFormat() {
+        ConsulLogParser parser = new ConsulLogParser(events::add,
+            ConsulLogLevel.TRACE);
+        parser.accept("{\"@level\":\"info\",\"@message\":\"New leader elected\","
+            + "\"@module\":\"agent.server.raft\",\"@timestamp\":"
+            + "\"2020-01-27T12:00:00.000000+01:00\",\"payload\":\"node\","
+            + "\"term\":2,\"peers\":[\"a\",\"b\"]}\n");
+        assertEquals(1, events.size());
+
+        ConsulLogEvent event = events.get(0);
+        assertEquals("2020-01-27T12:00:00.000000+01:00", event.getTimestamp());
+        assertEquals(ConsulLogLevel.INFO, event.getLevel());
+        assertEquals("agent.server.raft", event.getModule());
+        assertEquals("New leader elected", event.getMessage());
+        assertEquals("node", event.getFields().get("payload"));
+        assertEquals("2", event.getFields().get("term"));
+        assertEquals("[a, b]", event.getFields().get("peers"));
+    }
+
+    @Test
+    public void testFilter() {
+        ConsulLogParser parser = new ConsulLogParser(events::add,
+            ConsulLogLevel.WARN, "agent");
+        parser.accept("2018/09/17 12:00:00 [INFO] agent: Synced node info\n");
+        parser.accept("2018/09/17 12:00:00 [WARN] raft: Heartbeat timeout\n");
+        parser.accept("2018/09/17 12:00:00 [WARN] agentx: Something\n");
+        parser.accept("2018/09/17 12:00:00 [WARN] agent: Check is critical\n");
+        parser.accept("{\"@level\":\"error\",\"@message\":\"Failed\","
+            + "\"@module\":\"agent.server\",\"@timestamp\":\"t\"}\n");
+        parser.accept("{\"@level\":\"debug\",\"@message\":\"Skipped\","
+            + "\"@module\":\"agent\",\"@timestamp\":\"t\"}\n");
+        assertEquals(2, events.size());
+        assertEquals("Check is critical", events.get(0).getMessage());
+        assertEquals("Failed", events.get(1).getMessage());
+        assertEquals(ConsulLogLevel.ERR, events.get(1).getLevel());
+    }
+
+    @Test
+    public void testMalformedJsonIsIgnored() {
+        ConsulLogParser parser = new ConsulLogParser(events::add,
+            ConsulLogLevel.TRACE);
+        parser.accept("{\"@level\":\"info\",\"@message\":\"unterminated\n");
+        parser.accept("{\"@message\":\"no level\"}\n");
+        assertEquals(Collections.emptyList(), events);
+    }
+
+}
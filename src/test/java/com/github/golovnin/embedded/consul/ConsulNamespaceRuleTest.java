@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulNamespaceRuleTest {
+
+    @Rule
+    public final ConsulNamespaceRule consul = new ConsulNamespaceRule();
+
+    @Test
+    public void testKeysAreIsolated() throws IOException {
+        ConsulNamespace namespace = consul.namespace();
+        ConsulNamespace other = new ConsulNamespace(namespace.getProcess());
+        namespace.put("a/b c", "1");
+        other.put("a/b c", "2");
+        try {
+            assertEquals("1", namespace.get("a/b c"));
+            assertEquals("2", other.get("a/b c"));
+            assertEquals(Collections.singletonList("a/b c"), namespace.keys());
+        } finally {
+            other.clear();
+        }
+        assertNull(other.get("a/b c"));
+        assertEquals("1", namespace.get("a/b c"));
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        ConsulNamespace namespace = consul.namespace();
+        namespace.put("key", "value");
+        String id = namespace.register(new ConsulService.Builder("web")
+            .port(8080)
+            .build());
+        assertEquals(namespace.serviceName("web"), id);
+        ConsulHttp http = ConsulHttp.of(namespace.getProcess().getConfig());
+        assertTrue(http.get("/v1/agent/services").contains(id));
+        namespace.clear();
+        assertTrue(namespace.keys().isEmpty());
+        assertFalse(http.get("/v1/agent/services").contains(id));
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulOutputDispatcherTest {
+
+    @Test
+    public void testDeliversAllLinesInOrder() throws InterruptedException {
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        ConsulOutputDispatcher dispatcher = new ConsulOutputDispatcher(16,
+            ConsulOverflowPolicy.BLOCK, 4, lines::addAll);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add("line " + i);
+            dispatcher.accept("line " + i);
+        }
+        dispatcher.close();
+        assertTrue(dispatcher.awaitTermination(10000));
+        assertEquals(expected, lines);
+        assertEquals(0, dispatcher.getDropped());
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        List<String> lines = new ArrayList<>();
+        ConsulOutputDispatcher dispatcher = new ConsulOutputDispatcher(3,
+            ConsulOverflowPolicy.DROP_OLDEST, 10, blocked(lines));
+        fillWhileBlocked(dispatcher);
+        assertTrue(dispatcher.awaitTermination(10000));
+        assertEquals(Arrays.asList("first", "c", "d", "e"), lines);
+        assertEquals(2, dispatcher.getDropped());
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        List<String> lines = new ArrayList<>();
+        ConsulOutputDispatcher dispatcher = new ConsulOutputDispatcher(3,
+            ConsulOverflowPolicy.DROP_NEWEST, 10, blocked(lines));
+        fillWhileBlocked(dispatcher);
+        assertTrue(dispatcher.awaitTermination(10000));
+        assertEquals(Arrays.asList("first", "a", "b", "c"), lines);
+        assertEquals(2, dispatcher.getDropped());
+    }
+
+    @Test
+    public void testDispatchersShareBoundedExecutor()
+        throws InterruptedException
+    {
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        List<ConsulOutputDispatcher> dispatchers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            dispatchers.add(new ConsulOutputDispatcher(16,
+                ConsulOverflowPolicy.BLOCK, 4, lines::addAll));
+        }
+        for (int i = 0; i < 100; i++) {
+            for (ConsulOutputDispatcher dispatcher : dispatchers) {
+                dispatcher.accept("line " + i);
+            }
+        }
+        for (ConsulOutputDispatcher dispatcher : dispatchers) {
+            dispatcher.close();
+            assertTrue(dispatcher.awaitTermination(10000));
+        }
+        assertEquals(2000, lines.size());
+        long threads = Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().startsWith("embedded-consul-dispatcher"))
+            .count();
+        assertTrue(threads <= ConsulOutputDispatcher.PARALLELISM);
+    }
+
+    private final CountDownLatch taken = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private Consumer<List<String>> blocked(List<String> lines) {
+        return batch -> {
+            lines.addAll(batch);
+            taken.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private void fillWhileBlocked(ConsulOutputDispatcher dispatcher)
+        throws InterruptedException
+    {
+        dispatcher.accept("first");
+        taken.await();
+        for (String line : Arrays.asList("a", "b", "c", "d", "e")) {
+            dispatcher.accept(line);
+        }
+        dispatcher.close();
+        release.countDown();
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulOutputReactorTest {
+
+    @Test
+    public void testSplitsOutputIntoLines() throws IOException, InterruptedException {
+        assumeTrue(Platform.detect() != Platform.Windows);
+        Process process = new ProcessBuilder("sh", "-c",
+            "printf 'first\\nsec'; sleep 0.2; printf 'ond\\nlast'; printf 'error\\n' >&2")
+            .start();
+        Lines out = new Lines();
+        Lines err = new Lines();
+        ConsulOutputReactor.connect(process, out, err);
+        assertTrue(out.await());
+        assertTrue(err.await());
+        assertEquals(Arrays.asList("first\n", "second\n", "last"), out.lines);
+        assertEquals(Collections.singletonList("error\n"), err.lines);
+    }
+
+    @Test
+    public void testThreadCountIsConstant() throws IOException, InterruptedException {
+        assumeTrue(Platform.detect() != Platform.Windows);
+        List<Process> processes = new ArrayList<>();
+        List<Lines> outputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; i++) {
+                Process process = new ProcessBuilder("sh", "-c",
+                    "sleep 0.5; echo " + i).start();
+                Lines out = new Lines();
+                ConsulOutputReactor.connect(process, out, new Lines());
+                processes.add(process);
+                outputs.add(out);
+            }
+            assertTrue(countReaderThreads() <= ConsulOutputReactor.THREADS);
+            for (int i = 0; i < outputs.size(); i++) {
+                assertTrue(outputs.get(i).await());
+                assertEquals(Collections.singletonList(i + "\n"),
+                    outputs.get(i).lines);
+            }
+        } finally {
+            processes.forEach(Process::destroy);
+        }
+    }
+
+    @Test
+    public void testLongLinesAreSplit() throws IOException, InterruptedException {
+        assumeTrue(Platform.detect() != Platform.Windows);
+        Process process = new ProcessBuilder("sh", "-c",
+            "head -c 200000 /dev/zero | tr '\\0' a; echo").start();
+        Lines out = new Lines();
+        ConsulOutputReactor.connect(process, out, new Lines());
+        assertTrue(out.await());
+        StringBuilder line = new StringBuilder();
+        for (String chunk : out.lines) {
+            assertTrue(chunk.length() <= ConsulOutputReactor.MAX_LINE_LENGTH);
+            line.append(chunk);
+        }
+        assertEquals(200001, line.length());
+        assertTrue(line.toString().endsWith("a\n"));
+    }
+
+    @Test
+    public void testFailingProcessorClosesOnlyItsPipe()
+        throws IOException, InterruptedException
+    {
+        assumeTrue(Platform.detect() != Platform.Windows);
+        Process failing = new ProcessBuilder("sh", "-c", "echo fail; sleep 1")
+            .start();
+        Lines broken = new Lines() {
+
+            @Override
+            public void process(String block) {
+                throw new AssertionError(block);
+            }
+
+        };
+        ConsulOutputReactor.connect(failing, broken, new Lines());
+        try {
+            assertTrue(broken.await());
+            Process process = new ProcessBuilder("sh", "-c", "echo ok").start();
+            Lines out = new Lines();
+            ConsulOutputReactor.connect(process, out, new Lines());
+            assertTrue(out.await());
+            assertEquals(Collections.singletonList("ok\n"), out.lines);
+        } finally {
+            failing.destroy();
+        }
+    }
+
+    private static int countReaderThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("embedded-consul-output")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class Lines implements IStreamProcessor {
+
+        final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch processed = new CountDownLatch(1);
+
+        @Override
+        public void process(String block) {
+            lines.add(block);
+        }
+
+        @Override
+        public void onProcessed() {
+            processed.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return processed.await(10, TimeUnit.SECONDS);
+        }
+
+    }
+
+}
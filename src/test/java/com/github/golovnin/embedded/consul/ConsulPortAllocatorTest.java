@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulPortAllocatorTest {
+
+    @Test
+    public void testBlocksAreDistinctAndFree() throws IOException {
+        InetAddress address = InetAddress.getLoopbackAddress();
+        long allocations = ConsulPortAllocator.getAllocations();
+        int[] first = ConsulPortAllocator.allocate(address);
+        int[] second = ConsulPortAllocator.allocate(address);
+        try {
+            assertEquals(ConsulPortAllocator.BLOCK_SIZE, first.length);
+            assertNotEquals(first[0], second[0]);
+            assertEquals(allocations + 2, ConsulPortAllocator.getAllocations());
+            for (int port : first) {
+                try (ServerSocket socket = new ServerSocket()) {
+                    socket.bind(new InetSocketAddress(address, port));
+                }
+            }
+        } finally {
+            ConsulPortAllocator.release(first[0]);
+            ConsulPortAllocator.release(second[0]);
+        }
+    }
+
+    @Test
+    public void testReleaseFreesTheBlock() throws IOException {
+        int[] ports = ConsulPortAllocator.allocate(
+            InetAddress.getLoopbackAddress());
+        assertTrue(ConsulPortAllocator.isReserved(ports[0]));
+        ConsulPortAllocator.release(ports[0]);
+        assertFalse(ConsulPortAllocator.isReserved(ports[0]));
+    }
+
+    @Test
+    public void testWithPortsKeepsDisabledDNS() {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .reservePorts("127.0.0.1", false)
+            .build();
+        try {
+            assertEquals("127.0.0.1", config.getReservedPortsAddress());
+            assertEquals(-1, config.getDnsPort());
+            ConsulAgentConfig copy =
+                config.withPorts(new int[] {20000, 20001, 20002, 20003, 20004});
+            assertEquals(20000, copy.getHttpPort());
+            assertEquals(-1, copy.getDnsPort());
+            assertEquals(20002, copy.getSerfLANPort());
+            assertEquals(20003, copy.getSerfWANPort());
+            assertEquals(20004, copy.getServerPort());
+            assertEquals(config.getNode(), copy.getNode());
+            assertTrue(copy.toJson().contains("20002"));
+        } finally {
+            ConsulPortAllocator.release(config.getHttpPort());
+        }
+    }
+
+    @Test
+    public void testPortsAreReservedOnBuild() throws IOException {
+        long allocations = ConsulPortAllocator.getAllocations();
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .randomPorts("127.0.0.1")
+            .httpPort(18500)
+            .build();
+        int base = config.getReservedPorts();
+        try {
+            assertEquals(allocations + 1, ConsulPortAllocator.getAllocations());
+            assertTrue(ConsulPortAllocator.isReserved(base));
+            assertEquals(18500, config.getHttpPort());
+            assertEquals(base + 1, config.getDnsPort());
+            assertEquals(base + 2, config.getSerfLANPort());
+
+            // The first start takes over the block, another start cannot
+            // use it while it is reserved.
+            assertTrue(config.claimReservedPorts());
+            assertFalse(config.claimReservedPorts());
+            ConsulPortAllocator.release(base);
+            assertTrue(config.claimReservedPorts());
+
+            ConsulAgentConfig copy =
+                config.withPorts(new int[] {20000, 20001, 20002, 20003, 20004});
+            assertEquals(18500, copy.getHttpPort());
+            assertEquals(20001, copy.getDnsPort());
+            assertEquals(20002, copy.getSerfLANPort());
+        } finally {
+            ConsulPortAllocator.release(base);
+        }
+    }
+
+    @Test
+    public void testUnclaimedPortsAreReleased() {
+        ConsulAgentConfig config = new ConsulAgentConfig.Builder()
+            .randomPorts()
+            .build();
+        assertTrue(ConsulPortAllocator.isReserved(config.getHttpPort()));
+        config.releaseUnclaimedPorts();
+        assertFalse(ConsulPortAllocator.isReserved(config.getHttpPort()));
+    }
+
+}
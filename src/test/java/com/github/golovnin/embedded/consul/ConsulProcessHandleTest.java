@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.runtime.ProcessControl;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulProcessHandleTest {
+
+    private static final boolean JAVA_8 =
+        System.getProperty("java.specification.version").startsWith("1.");
+
+    @Test
+    public void testSupported() {
+        assertEquals(!JAVA_8, ConsulProcessHandle.isSupported());
+    }
+
+    @Test
+    public void testDestroy()
+        throws IOException, InterruptedException, ExecutionException, TimeoutException
+    {
+        assumeTrue(Platform.detect() != Platform.Windows);
+        ProcessControl control = ProcessControl.start(
+            new ConsulSupportConfig(1000), new ProcessBuilder("sleep", "60"));
+        try {
+            ConsulProcessHandle handle = ConsulProcessHandle.of(control);
+            if (JAVA_8) {
+                assertNull(handle);
+                return;
+            }
+            assertNotNull(handle);
+            assertTrue(handle.pid() > 0);
+            assertTrue(handle.isAlive());
+            assertNotNull(ConsulProcessHandle.of(handle.pid()));
+
+            handle.destroy(false);
+            handle.onExit().get(10, TimeUnit.SECONDS);
+            assertFalse(handle.isAlive());
+            assertNull(ConsulProcessHandle.of(handle.pid()));
+        } finally {
+            ConsulStopSignal.KILL.send(Collections.singletonList(control.getPid()));
+            control.waitFor();
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.golovnin.embedded.consul;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulSeedTest {
+
+    @Test
+    public void testJson() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        ConsulSeedReader.readJson(new StringReader(
+            "{\"app\": {\"name\": \"demo\\n\\u00fc\", \"port\": 8080,"
+                + " \"enabled\": true, \"tags\": [\"a\", {\"b\": 1}]},"
+                + " \"empty\": null, \"none\": {}}"),
+            entries::put);
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("app/name", "demo\n\u00fc");
+        expected.put("app/port", "8080");
+        expected.put("app/enabled", "true");
+        expected.put("app/tags", "[\"a\",{\"b\":1}]");
+        expected.put("empty", "");
+        assertEquals(expected, entries);
+    }
+
+    @Test
+    public void testInvalidJson() {
+        try {
+            ConsulSeedReader.readJson(
+                new StringReader("{\n\"a\": \"b\"\n\"c\": 1}"), (k, v) -> {});
+            fail("Invalid JSON must be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 3"));
+        }
+    }
+
+    @Test
+    public void testYaml() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        ConsulSeedReader.readYaml(new BufferedReader(new StringReader(
+            "---\n"
+                + "# comment\n"
+                + "app:\n"
+                + "  name: demo # trailing comment\n"
+                + "  url: \"http://localhost:8080/#top\"\n"
+                + "  db:\n"
+                + "    user: 'it''s me'\n"
+                + "level: top\n")),
+            entries::put);
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("app/name", "demo");
+        expected.put("app/url", "http://localhost:8080/#top");
+        expected.put("app/db/user", "it's me");
+        expected.put("level", "top");
+        assertEquals(expected, entries);
+    }
+
+    @Test
+    public void testYamlCommentsAfterQuotedValues() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        ConsulSeedReader.readYaml(new BufferedReader(new StringReader(
+            "single: 'a' # note\n"
+                + "double: \"b \\\" # c\" # note\n"
+                + "escaped: 'it''s # here' # note\n")),
+            entries::put);
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("single", "a");
+        expected.put("double", "b \" # c");
+        expected.put("escaped", "it's # here");
+        assertEquals(expected, entries);
+    }
+
+    @Test
+    public void testYamlNullValuesAreEmpty() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        ConsulSeedReader.readYaml(new BufferedReader(new StringReader(
+            "tilde: ~\n"
+                + "word: null # note\n"
+                + "quoted: 'null'\n")),
+            entries::put);
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("tilde", "");
+        expected.put("word", "");
+        expected.put("quoted", "null");
+        assertEquals(expected, entries);
+    }
+
+    @Test
+    public void testYamlKeysWithoutValueAreEmpty() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        ConsulSeedReader.readYaml(new BufferedReader(new StringReader(
+            "service:\n"
+                + "  empty:\n"
+                + "  # comment\n"
+                + "  name: web\n"
+                + "  nested:\n"
+                + "    deep:\n"
+                + "last:\n")),
+            entries::put);
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("service/empty", "");
+        expected.put("service/name", "web");
+        expected.put("service/nested/deep", "");
+        expected.put("last", "");
+        assertEquals(expected, entries);
+    }
+
+    @Test(expected = IOException.class)
+    public void testYamlListsAreRejected() throws IOException {
+        ConsulSeedReader.readYaml(new BufferedReader(
+            new StringReader("tags:\n  - a\n")), (k, v) -> {});
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        List<String> transactions = Collections.synchronizedList(new ArrayList<>());
+        ConsulHttpStub server = new ConsulHttpStub();
+        server.handle("/v1/txn", exchange -> {
+            transactions.add(exchange.getRequestURI().getPath());
+            ConsulHttpStub.respond(exchange, "{}");
+        });
+        server.start();
+        Path file = Files.createTempFile("seed", ".properties");
+        try {
+            StringBuilder properties = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                properties.append("key.").append(i).append('=').append(i).append('\n');
+            }
+            Files.write(file, properties.toString().getBytes(StandardCharsets.UTF_8));
+            AtomicLong progress = new AtomicLong();
+            List<Boolean> done = new ArrayList<>();
+            ConsulSeed seed = new ConsulSeed.Builder()
+                .entries(Collections.singletonMap("first", "1"))
+                .files(file)
+                .batchSize(100)
+                .listener((entries, nanos, finished) -> {
+                    progress.set(entries);
+                    done.add(finished);
+                })
+                .build();
+            long loaded = seed.load(
+                new ConsulHttp("127.0.0.1", server.getPort()));
+            assertEquals(201, loaded);
+            assertEquals(201, progress.get());
+            assertEquals(Arrays.asList(false, false, true), done);
+            // 100, 100 and 1 entries in transactions of up to 64 operations
+            assertEquals(2 + 2 + 1, transactions.size());
+        } finally {
+            server.close();
+            Files.delete(file);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.Collections;
+import java.util.List;
+
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulStartupWatchTest {
+
+    private static final IStreamProcessor NOP = new IStreamProcessor() {
+
+        @Override
+        public void process(String line) {
+            // NOP
+        }
+
+        @Override
+        public void onProcessed() {
+            // NOP
+        }
+
+    };
+
+    @Test
+    public void testHistoryIsBounded() throws InterruptedException {
+        ConsulStartupWatch watch = new ConsulStartupWatch("running",
+            Collections.singleton("Error"), 5);
+        IStreamProcessor stdout = watch.stdout(NOP);
+        for (int i = 0; i < 100; i++) {
+            stdout.process("starting " + i + "\n");
+        }
+        assertEquals(20, watch.getLastLines().split("\n").length);
+        stdout.process("running\n");
+        assertEquals(ConsulStartupWatch.State.RUNNING,
+            watch.awaitDecision(System.nanoTime()));
+        for (int i = 0; i < 1000000; i++) {
+            stdout.process("line " + i + "\n");
+        }
+        List<String> history = watch.getHistory();
+        assertEquals(5, history.size());
+        assertEquals("line 999995\n", history.get(0));
+        assertEquals("line 999999\n", history.get(4));
+    }
+
+    @Test
+    public void testNoHistory() throws InterruptedException {
+        ConsulStartupWatch watch = new ConsulStartupWatch("running",
+            Collections.singleton("Error"), 0);
+        IStreamProcessor stdout = watch.stdout(NOP);
+        stdout.process("running\n");
+        stdout.process("line\n");
+        assertTrue(watch.getHistory().isEmpty());
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.runtime.Processes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulStopSignalTest {
+
+    @Test
+    public void testSignalsAllProcessesAtOnce() throws IOException, InterruptedException {
+        assumeTrue(Platform.detect() != Platform.Windows);
+        Process first = new ProcessBuilder("sleep", "60").start();
+        Process second = new ProcessBuilder("sleep", "60").start();
+        try {
+            assertTrue(ConsulStopSignal.TERMINATE.send(Arrays.asList(
+                Processes.processId(first), Processes.processId(second))));
+            assertTrue(first.waitFor(10, TimeUnit.SECONDS));
+            assertTrue(second.waitFor(10, TimeUnit.SECONDS));
+            assertEquals(128 + 15, first.exitValue());
+        } finally {
+            first.destroy();
+            second.destroy();
+        }
+    }
+
+    @Test
+    public void testKill() throws IOException, InterruptedException {
+        assumeTrue(Platform.detect() != Platform.Windows);
+        Process process = new ProcessBuilder("sleep", "60").start();
+        try {
+            assertTrue(ConsulStopSignal.KILL.send(
+                Collections.singletonList(Processes.processId(process))));
+            assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+            assertEquals(128 + 9, process.exitValue());
+        } finally {
+            process.destroy();
+        }
+    }
+
+}
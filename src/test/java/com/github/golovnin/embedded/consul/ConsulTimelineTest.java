@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.consul;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class ConsulTimelineTest {
+
+    @Test
+    public void testMilestonesFromOutput() {
+        ConsulTimeline timeline = new ConsulTimeline(System.nanoTime());
+        timeline.onLine("==> Consul agent running!\n");
+        timeline.onLine("    2018/09/17 12:00:00 [INFO] consul: cluster leadership acquired\n");
+        assertTrue(timeline.isReached(ConsulMilestone.RUNNING));
+        assertTrue(timeline.isReached(ConsulMilestone.LEADER_ELECTED));
+        assertFalse(timeline.isReached(ConsulMilestone.MEMBER_ALIVE));
+        assertFalse(timeline.isReached(ConsulMilestone.SYNCED));
+        assertEquals(-1, timeline.get(ConsulMilestone.SYNCED, TimeUnit.NANOSECONDS));
+
+        long leader = timeline.get(ConsulMilestone.LEADER_ELECTED, TimeUnit.NANOSECONDS);
+        timeline.onLine("    2018/09/17 12:00:01 [INFO] consul: New leader elected: node\n");
+        assertEquals(leader, timeline.get(ConsulMilestone.LEADER_ELECTED, TimeUnit.NANOSECONDS));
+
+        timeline.onLine("    2018/09/17 12:00:01 [INFO] consul: member 'node' joined, marking health alive\n");
+        timeline.onLine("    2018/09/17 12:00:02 [INFO] agent: Synced node info\n");
+        assertTrue(timeline.isReached(ConsulMilestone.MEMBER_ALIVE));
+        assertTrue(timeline.isReached(ConsulMilestone.SYNCED));
+        assertFalse(timeline.isReached(ConsulMilestone.READY));
+    }
+
+    @Test
+    public void testRecordIsRelativeToSpawn() {
+        ConsulTimeline timeline = new ConsulTimeline(1000);
+        timeline.record(ConsulMilestone.READY, 3000);
+        timeline.record(ConsulMilestone.READY, 5000);
+        assertEquals(2000, timeline.get(ConsulMilestone.READY, TimeUnit.NANOSECONDS));
+    }
+
+}